@@ -10,6 +10,7 @@ import javax.vecmath.Point2d;
 import javax.vecmath.Point3d;
 
 import straightskeleton.Corner;
+import utils.CancelToken;
 import utils.DRectangle;
 import utils.Line;
 
@@ -65,10 +66,19 @@ public class FoldAndCutPattern {
 		}
 	}
 	public void computePerpendiculars(DRectangle bounds) {
+		computePerpendiculars(bounds, null);
+	}
+	
+	/**
+	 * Checks cancel before each face, throwing CancelToken.Cancelled (with the
+	 * perpendiculars half traced) if it has been cancelled.
+	 */
+	public void computePerpendiculars(DRectangle bounds, CancelToken cancel) {
 		Set<PerpendicularSource> computedPerpendiculars = new HashSet<PerpendicularSource>();
 		
 		for (SkeletonOutput sOutput : outputs) {
 			for (SkeletonFace face : sOutput.getFaces().values()) {
+				CancelToken.check(cancel);
 				for (Point3d startPoint3d : face.getSkeletonFace().points.eIterator()) {
 					tracePerpendicular(sOutput, bounds, computedPerpendiculars, face, startPoint3d);
 				}
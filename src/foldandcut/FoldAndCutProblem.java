@@ -4,13 +4,27 @@ import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import graph.BoundaryHierarchyTree;
 import graph.OrientedLoop;
+import straightskeleton.CappedSkeletonEngine;
+import straightskeleton.SkeletonEngine;
+import utils.CancelToken;
+import utils.DRectangle;
 
 public class FoldAndCutProblem {
 	private List<SkeletonInput> skeletonInputs;
 	Map<OrientedLoop, SkeletonInput> loopToInput;
+	private ExecutorService executor = getDefaultExecutor();
+	private DRectangle bounds;
+	private static ExecutorService defaultExecutor;
 	
 	private static void gatherStraightSkeletonFaces(BoundaryHierarchyTree.Node node, List<SkeletonInput> output, double epsilon) {
     	if (node == null)
@@ -53,11 +67,114 @@ public class FoldAndCutProblem {
 		return skeletonInputs;
 	}
 	
+	/**
+	 * Sets the executor used to compute the skeletons of the inputs. Null computes them
+	 * one after another on the calling thread.
+	 */
+	public void setExecutor(ExecutorService executor) {
+		this.executor = executor;
+	}
+	
+	/**
+	 * Sets the paper bounds. If set, the skeleton of the dummy face (the
+	 * region outside every cut, out to the box at infinity) is only computed
+	 * up to the height at which it covers the paper; beyond that its faces
+	 * are cut off flat. Null computes the whole thing.
+	 */
+	public void setBounds(DRectangle bounds) {
+		this.bounds = bounds;
+	}
+	
+	private SkeletonEngine getEngine(SkeletonInput input) {
+		if (bounds != null && input.getBHTNode().isDummy()) {
+			double cap = input.getCapHeight(bounds);
+			if (cap < Double.POSITIVE_INFINITY)
+				return new CappedSkeletonEngine(cap);
+		}
+		return SkeletonInput.defaultEngine;
+	}
+	
 	public FoldAndCutPattern computePattern() {
+		return computePattern(executor);
+	}
+	
+	public FoldAndCutPattern computePattern(ExecutorService executor) {
+		return computePattern(executor, null);
+	}
+	
+	/**
+	 * Computes the pattern with the problem's executor, giving up (throwing
+	 * CancelToken.Cancelled) once cancel is cancelled.
+	 */
+	public FoldAndCutPattern computePattern(CancelToken cancel) {
+		return computePattern(executor, cancel);
+	}
+	
+	/**
+	 * The inputs are independent polygons-with-holes, so their skeletons are computed
+	 * concurrently on the given executor. Outputs are gathered in the order of the inputs.
+	 * Each skeleton checks cancel between its events; once one is cancelled, the rest
+	 * are abandoned too.
+	 */
+	public FoldAndCutPattern computePattern(ExecutorService executor, final CancelToken cancel) {
 		List<SkeletonOutput> outputs = new ArrayList<SkeletonOutput>();
-		for (SkeletonInput input : getSkeletonInputs()) {
-			outputs.add(input.computeStraightSkeleton());
+		if (executor == null || getSkeletonInputs().size() < 2) {
+			for (SkeletonInput input : getSkeletonInputs()) {
+				outputs.add(input.computeStraightSkeleton(getEngine(input), cancel));
+			}
+			return new FoldAndCutPattern(this, outputs);
+		}
+		
+		List<Future<SkeletonOutput>> futures = new ArrayList<Future<SkeletonOutput>>();
+		for (final SkeletonInput input : getSkeletonInputs()) {
+			futures.add(executor.submit(new Callable<SkeletonOutput>() {
+				@Override
+				public SkeletonOutput call() {
+					CancelToken.check(cancel);
+					return input.computeStraightSkeleton(getEngine(input), cancel);
+				}
+			}));
+		}
+		
+		try {
+			for (Future<SkeletonOutput> future : futures) {
+				outputs.add(future.get());
+			}
+		} catch (InterruptedException e) {
+			for (Future<SkeletonOutput> future : futures) {
+				future.cancel(true);
+			}
+			Thread.currentThread().interrupt();
+			throw new RuntimeException("Interrupted while computing straight skeletons", e);
+		} catch (ExecutionException e) {
+			for (Future<SkeletonOutput> future : futures) {
+				future.cancel(true);
+			}
+			if (e.getCause() instanceof RuntimeException)
+				throw (RuntimeException) e.getCause();
+			if (e.getCause() instanceof Error)
+				throw (Error) e.getCause();
+			throw new RuntimeException(e.getCause());
 		}
 		return new FoldAndCutPattern(this, outputs);
 	}
+	
+	/**
+	 * A shared pool with a (daemon) thread per processor, created when first asked for.
+	 */
+	public static synchronized ExecutorService getDefaultExecutor() {
+		if (defaultExecutor == null) {
+			defaultExecutor = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors(), new ThreadFactory() {
+				private final AtomicInteger count = new AtomicInteger();
+				
+				@Override
+				public Thread newThread(Runnable r) {
+					Thread t = new Thread(r, "skeleton-" + count.incrementAndGet());
+					t.setDaemon(true);
+					return t;
+				}
+			});
+		}
+		return defaultExecutor;
+	}
 }
@@ -15,7 +15,10 @@ import javax.vecmath.Tuple3d;
 import straightskeleton.Corner;
 import straightskeleton.Edge;
 import straightskeleton.Machine;
-import straightskeleton.Skeleton;
+import straightskeleton.SkeletonEngine;
+import utils.CancelToken;
+import utils.DRectangle;
+import utils.Loop;
 import utils.LoopL;
 
 /**
@@ -66,6 +69,11 @@ public class SkeletonInput {
 	}
 	private Map<VP, OrientedLoop.EdgeContext> edgeMap;
 	
+	/**
+	 * The engine computeStraightSkeleton() uses.
+	 */
+	public static SkeletonEngine defaultEngine = SkeletonEngine.GENERAL;
+	
 	public FoldAndCutProblem parent; // Bah.
 	SkeletonOutput output; // BAAAH
 	Map<OrientedLoop.EdgeContext, Edge> edgeContextToEdge;
@@ -155,10 +163,47 @@ public class SkeletonInput {
 		return new Point2d(point.x, point.y);
 	}
 	
+	/**
+	 * Computes the skeleton with the default engine.
+	 */
 	public SkeletonOutput computeStraightSkeleton() {
-		Skeleton skeleton = new Skeleton(getEdges(), true);
-		skeleton.skeleton();
-		output = new SkeletonOutput(this, skeleton.output);
+		return computeStraightSkeleton(defaultEngine);
+	}
+	
+	/**
+	 * Returns a height by which the skeleton has swept every point of the
+	 * given bounds. The holes' wavefronts grow outwards, and reach a point
+	 * no later than its distance from them, so the diagonal of the bounds
+	 * and the holes together will do. Every edge rises at pi/4. Returns
+	 * infinity if there are no holes.
+	 */
+	public double getCapHeight(DRectangle bounds) {
+		if (edges.size() < 2)
+			return Double.POSITIVE_INFINITY;
+		
+		double minX = bounds.x, minY = bounds.y, maxX = bounds.getMaxX(), maxY = bounds.getMaxY();
+		for (Loop<Edge> hole : edges.subList(1, edges.size())) {
+			for (Edge e : hole) {
+				minX = Math.min(minX, e.start.x);
+				minY = Math.min(minY, e.start.y);
+				maxX = Math.max(maxX, e.start.x);
+				maxY = Math.max(maxY, e.start.y);
+			}
+		}
+		// A little extra so the last events before the cap are processed.
+		return Math.hypot(maxX - minX, maxY - minY) + 1;
+	}
+	
+	public SkeletonOutput computeStraightSkeleton(SkeletonEngine engine) {
+		return computeStraightSkeleton(engine, null);
+	}
+	
+	/**
+	 * Throws CancelToken.Cancelled, leaving the previous output, if cancelled
+	 * part way through.
+	 */
+	public SkeletonOutput computeStraightSkeleton(SkeletonEngine engine, CancelToken cancel) {
+		output = new SkeletonOutput(this, engine.skeleton(getEdges(), cancel));
 		return output;
 	}
 }
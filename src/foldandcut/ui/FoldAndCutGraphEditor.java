@@ -9,8 +9,8 @@ import foldandcut.FoldAndCutProblem;
 import foldandcut.Perpendicular;
 import foldandcut.SkeletonOutput;
 import graph.BoundaryHierarchyTree;
+import graph.CompactGraph;
 import graph.Graph;
-import graph.Simplify;
 import graph.Vertex;
 import graph.ui.GraphEditor;
 
@@ -25,6 +25,10 @@ import java.io.IOException;
 import java.io.OutputStream;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicReference;
 
 import javax.swing.SwingUtilities;
 import javax.vecmath.Point2d;
@@ -40,6 +44,7 @@ import pdf.PDFSimpleDocument;
 import straightskeleton.Output;
 import straightskeleton.Output.Face;
 import straightskeleton.debug.DebugDevice;
+import utils.CancelToken;
 import utils.DRectangle;
 import utils.Loop;
 import utils.LoopL;
@@ -50,8 +55,12 @@ public class FoldAndCutGraphEditor extends GraphEditor {
 
 	private boolean changed = true;
 	
-	private boolean busy = false;
 	private FoldAndCutPattern pattern = null;
+	// The last job handed to the worker; older jobs are cancelled, and their
+	// results dropped. Only touched on the event thread.
+	private Job latest = null;
+	// The job waiting for the worker, if it hasn't started on it yet.
+	private final AtomicReference<Job> pending = new AtomicReference<Job>();
 	public DRectangle paperBounds = new DRectangle(-500, -500, 1000, 1000);
 	private DRectangle prevPaperBounds =
 		new DRectangle(paperBounds.x,paperBounds.y,paperBounds.width,paperBounds.height);
@@ -258,16 +267,17 @@ public class FoldAndCutGraphEditor extends GraphEditor {
         	}
     }
     
-    private static FoldAndCutProblem getFoldAndCutProblem(Graph g) {
+    private static FoldAndCutProblem getFoldAndCutProblem(CompactGraph g, CancelToken cancel) {
     	final double EPSILON = 0.01;
     	
     	// First, we simplify the graph.
-    	g = Simplify.simplifyGraph(g, EPSILON);
+    	g = g.simplify(EPSILON);
     	// Next, we handle intersection edges.
-    	g.removeIntersections(EPSILON);
+    	g.removeIntersections(EPSILON, cancel);
     	// While we're at it, simplify again.
-    	g = Simplify.simplifyGraph(g, EPSILON);
+    	g = g.simplify(EPSILON);
     	System.err.println(g);
+    	CancelToken.check(cancel);
     	// Now, we find faces.
     	BoundaryHierarchyTree tree = g.computeBoundaryHierarchyTree();
     	
@@ -275,45 +285,109 @@ public class FoldAndCutGraphEditor extends GraphEditor {
     	return new FoldAndCutProblem(tree, EPSILON);
     }
     
+    /**
+     * A snapshot of the editor to compute a pattern for.
+     */
+    private static class Job {
+    	final CompactGraph graph;
+    	final boolean drawPerpendiculars;
+    	final DRectangle bounds;
+    	final CancelToken cancel = new CancelToken();
+    	
+    	Job(CompactGraph graph, boolean drawPerpendiculars, DRectangle bounds) {
+    		this.graph = graph;
+    		this.drawPerpendiculars = drawPerpendiculars;
+    		this.bounds = bounds;
+    	}
+    }
+    
+    private static ExecutorService worker;
+    
+    /**
+     * One (daemon) thread computes patterns for every editor, one at a time.
+     */
+    private static synchronized ExecutorService getWorker() {
+    	if (worker == null) {
+    		worker = Executors.newSingleThreadExecutor(new ThreadFactory() {
+    			@Override
+    			public Thread newThread(Runnable r) {
+    				Thread t = new Thread(r, "fold-and-cut");
+    				t.setDaemon(true);
+    				return t;
+    			}
+    		});
+    	}
+    	return worker;
+    }
+    
+    /**
+     * Hands the current graph to the worker, cancelling whatever it was doing
+     * for the previous one. A burst of edits coalesces: if the worker hasn't
+     * started on the previous graph yet, it's replaced, so the worker only ever
+     * starts on the newest.
+     */
     private void scheduleStraightSkeletons() {
-    	if (!changed || busy)
+    	if (!changed)
     		return;
-    	busy = true;
     	changed = false;
     	
+    	if (latest != null)
+    		latest.cancel.cancel();
+    	latest = null;
+    	
     	if (graph.vertexSet().size() == 0 || !drawSkeleton) {
     		// Special-case this to hide the dummy box.
+    		pending.set(null);
     		pattern = null;
-    		busy = false;
     		return;
     	}
     	
-    	// Make a copy of the graph for the thread.
-    	final Graph graphCopy = graph.deepCopy();
-    	final boolean drawPs = drawPerpendiculars;
-    	new Thread() {
+    	// Make a copy of the graph for the worker; it only reads the copied
+    	// positions, never the editor's vertices.
+    	latest = new Job(CompactGraph.fromGraph(graph), drawPerpendiculars, new DRectangle(paperBounds));
+    	if (pending.getAndSet(latest) != null)
+    		return; // the worker will pick it up instead
+    	
+    	getWorker().execute(new Runnable() {
     		@Override
     		public void run() {
-    			FoldAndCutPattern pattern = null;
-    			try {
-    		    	FoldAndCutProblem problem = getFoldAndCutProblem(graphCopy);
-    				DebugDevice.reset();
-    				pattern = problem.computePattern();
-    				if (drawPs)
-    					pattern.computePerpendiculars(paperBounds);
-    			} finally {
-    				final FoldAndCutPattern fPattern = pattern;
-    				SwingUtilities.invokeLater(new Runnable() {
-    					@Override
-    					public void run() {
-    						FoldAndCutGraphEditor.this.busy = false;
-    						FoldAndCutGraphEditor.this.pattern = fPattern;
-    						FoldAndCutGraphEditor.this.repaint();
-    					}
-    				});
-    			}
-    		};
-    	}.start();
+    			Job job = pending.getAndSet(null);
+    			if (job != null)
+    				computePattern(job);
+    		}
+    	});
+    }
+    
+    /**
+     * Runs on the worker. The pattern is only shown if no newer job has been
+     * scheduled since.
+     */
+    private void computePattern(final Job job) {
+    	FoldAndCutPattern pattern = null;
+    	try {
+    		FoldAndCutProblem problem = getFoldAndCutProblem(job.graph, job.cancel);
+    		problem.setBounds(job.bounds);
+    		DebugDevice.reset();
+    		pattern = problem.computePattern(job.cancel);
+    		if (job.drawPerpendiculars)
+    			pattern.computePerpendiculars(job.bounds, job.cancel);
+    	} catch (CancelToken.Cancelled e) {
+    		// A newer job is on its way.
+    		return;
+    	} finally {
+    		if (!job.cancel.isCancelled()) {
+    			final FoldAndCutPattern fPattern = pattern;
+    			SwingUtilities.invokeLater(new Runnable() {
+    				@Override
+    				public void run() {
+    					if (latest != job)
+    						return;
+    					FoldAndCutGraphEditor.this.pattern = fPattern;
+    					FoldAndCutGraphEditor.this.repaint();
+    				}
+    			});
+    		}
+    	}
     }
     
     private void paintSkeleton(Graphics2D g2, SkeletonOutput sOutput) {
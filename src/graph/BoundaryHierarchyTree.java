@@ -3,7 +3,10 @@ package graph;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Set;
 
 import javax.vecmath.Point2d;
 
@@ -18,6 +21,8 @@ public class BoundaryHierarchyTree {
 		private ArrayList<Node> children = new ArrayList<Node>();
 		private OrientedLoop loop = null;
 		private boolean isDummy = false;
+		// increases along the parent's children, so insertAll can put nodes in order
+		private int rank = 0;
 
 		public Node(OrientedLoop l) {
 			loop = l;
@@ -53,6 +58,14 @@ public class BoundaryHierarchyTree {
 			return ans;
 		}
 		
+		/** Appends child to the children, after any already there. */
+		private void addChild(Node child)
+		{
+			child.parent = this;
+			child.rank = children.isEmpty() ? 0 : children.get(children.size() - 1).rank + 1;
+			children.add(child);
+		}
+		
 		public void insert(OrientedLoop A)
 		{
 			// check if a child bounds A
@@ -79,8 +92,7 @@ public class BoundaryHierarchyTree {
 				Node child = children.get(i);
 				if ( child.loop.isBoundedBy(A) )
 				{
-					child.parent = newNode;
-					newNode.children.add(child);
+					newNode.addChild(child);
 					this.children.remove(i);
 					// reverse the increment i
 					i--;
@@ -88,8 +100,7 @@ public class BoundaryHierarchyTree {
 			}
 
 			// clear all of this's current children
-			this.children.add(newNode);
-			newNode.parent = this;
+			this.addChild(newNode);
 		}
 		
 	}
@@ -122,4 +133,118 @@ public class BoundaryHierarchyTree {
 		root.insert(A);
 	}
 	
+	/**
+	 * Inserts the loops in order, building the same tree as calling insert()
+	 * on each. A loop only bounds, or is bounded by, loops whose bounding box
+	 * contains its sample vertex, so those pairs are found first by sweeping
+	 * across x, and each insert only tests the children that are in a pair
+	 * with the new loop, rather than every child on the way down.
+	 */
+	public void insertAll(List<OrientedLoop> loops)
+	{
+		int n = loops.size();
+		final OrientedLoop[] loop = loops.toArray(new OrientedLoop[n]);
+		
+		// near[a] holds every b such that a's sample is in b's box, or b's sample is in a's box
+		List<Set<Integer>> near = new ArrayList<Set<Integer>>(n);
+		for (int a = 0; a < n; a++)
+			near.add(new HashSet<Integer>());
+		
+		Integer[] byMinX = new Integer[n], bySampleX = new Integer[n];
+		for (int a = 0; a < n; a++)
+			byMinX[a] = bySampleX[a] = a;
+		Arrays.sort(byMinX, new Comparator<Integer>() {
+			public int compare(Integer a, Integer b) {
+				return Double.compare(loop[a].getBounds()[0], loop[b].getBounds()[0]);
+			}
+		});
+		Arrays.sort(bySampleX, new Comparator<Integer>() {
+			public int compare(Integer a, Integer b) {
+				return Double.compare(loop[a].getSample().getPoint().x, loop[b].getSample().getPoint().x);
+			}
+		});
+		
+		List<Integer> active = new ArrayList<Integer>();
+		int nextBox = 0;
+		for (int a : bySampleX) {
+			Point2d p = loop[a].getSample().getPoint();
+			while (nextBox < n && loop[byMinX[nextBox]].getBounds()[0] <= p.x)
+				active.add(byMinX[nextBox++]);
+			
+			int kept = 0;
+			for (int b : active) {
+				double[] bounds = loop[b].getBounds();
+				if (bounds[2] < p.x)
+					continue; // no later sample is in this box either
+				active.set(kept++, b);
+				if (b != a && p.y >= bounds[1] && p.y <= bounds[3]) {
+					near.get(a).add(b);
+					near.get(b).add(a);
+				}
+			}
+			active.subList(kept, active.size()).clear();
+		}
+		
+		Node[] nodes = new Node[n];
+		
+		for (int a = 0; a < n; a++) {
+			OrientedLoop A = loop[a];
+			// the nodes already in the tree that could bound A, or be bounded by it
+			List<Node> candidates = new ArrayList<Node>();
+			for (int b : near.get(a))
+				if (nodes[b] != null)
+					candidates.add(nodes[b]);
+			
+			// walk down as insert() would, skipping the children it would reject
+			Node parent = root;
+			List<Node> under;
+			int i;
+			descend: while (true) {
+				under = childrenIn(parent, candidates);
+				for (i = 0; i < under.size(); i++) {
+					Node child = under.get(i);
+					if (A.isBoundedBy(child.loop)) {
+						parent = child;
+						continue descend;
+					} else if (child.loop.isBoundedBy(A)) {
+						break;
+					}
+				}
+				break;
+			}
+			
+			Node newNode = new Node(A);
+			for (; i < under.size(); i++) {
+				Node child = under.get(i);
+				if (child.loop.isBoundedBy(A))
+					newNode.addChild(child);
+			}
+			if (!newNode.children.isEmpty()) {
+				// the moved children now have newNode as parent
+				int kept = 0;
+				for (Node child : parent.children)
+					if (child.parent == parent)
+						parent.children.set(kept++, child);
+				parent.children.subList(kept, parent.children.size()).clear();
+			}
+			
+			parent.addChild(newNode);
+			nodes[a] = newNode;
+		}
+	}
+	
+	/** Returns those of the candidates that are children of parent, in order. */
+	private static List<Node> childrenIn(Node parent, List<Node> candidates) {
+		List<Node> out = new ArrayList<Node>();
+		for (Node c : candidates)
+			if (c.parent == parent)
+				out.add(c);
+		Collections.sort(out, new Comparator<Node>() {
+			public int compare(Node a, Node b) {
+				return a.rank < b.rank ? -1 : a.rank == b.rank ? 0 : 1;
+			}
+		});
+		return out;
+	}
+	
 }
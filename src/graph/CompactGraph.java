@@ -0,0 +1,571 @@
+package graph;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import javax.vecmath.Point2d;
+
+import org.jgrapht.graph.DefaultEdge;
+
+import utils.CancelToken;
+import utils.Line;
+
+/**
+ * A simple undirected graph of points held in arrays, for the clean up the
+ * fold and cut problem goes through (simplify, removeIntersections,
+ * computeBoundaryHierarchyTree) without an object per edge or listeners on
+ * every change. Graph stays the model the editor changes; fromGraph copies it
+ * over.
+ *
+ * Vertices and edges are numbered in the order they're added. Removing one
+ * only marks it as gone, so the others keep their numbers, and going through
+ * them in number order visits them in the order Graph would.
+ */
+public class CompactGraph {
+	private int vertexCount = 0, edgeCount = 0;
+	private double[] x = new double[16], y = new double[16];
+	private boolean[] vertexRemoved = new boolean[16];
+	// the edges touching each vertex, in the order they were added
+	private int[][] incident = new int[16][];
+	private int[] degree = new int[16];
+	// the Vertex standing for each, once asked for (or the one it was copied from)
+	private Vertex[] vertices = new Vertex[16];
+
+	private int[] source = new int[16], target = new int[16];
+	private boolean[] edgeRemoved = new boolean[16];
+
+	public CompactGraph() {
+	}
+
+	/**
+	 * Copies graph. The copy's vertices are numbered in the order of
+	 * graph.vertexSet() and its edges in the order of graph.edgeSet().
+	 * getVertex() returns the vertices of graph, but their positions are
+	 * copied now, so moving them later doesn't change this.
+	 */
+	public static CompactGraph fromGraph(Graph graph) {
+		CompactGraph out = new CompactGraph();
+		Map<Vertex, Integer> index = new HashMap<Vertex, Integer>(graph.vertexSet().size() * 2);
+		for (Vertex v : graph.vertexSet()) {
+			int i = out.addVertex(v.getPoint().x, v.getPoint().y);
+			out.vertices[i] = v;
+			index.put(v, i);
+		}
+		for (DefaultEdge e : graph.edgeSet()) {
+			out.addEdge(index.get(graph.getEdgeSource(e)), index.get(graph.getEdgeTarget(e)));
+		}
+		return out;
+	}
+
+	/**
+	 * Returns a new Graph with the same vertices (as getVertex()) and edges,
+	 * in the same order.
+	 */
+	public Graph toGraph() {
+		Graph graph = new Graph();
+		copyTo(graph);
+		return graph;
+	}
+
+	/** Replaces the contents of graph with this graph. */
+	void copyTo(Graph graph) {
+		graph.removeAllVertices(new ArrayList<Vertex>(graph.vertexSet()));
+		for (int v = 0; v < vertexCount; v++) {
+			if (containsVertex(v))
+				graph.addVertex(getVertex(v));
+		}
+		for (int e = 0; e < edgeCount; e++) {
+			if (containsEdge(e))
+				graph.addEdge(getVertex(source[e]), getVertex(target[e]));
+		}
+	}
+
+	/** Returns the number of vertices added, including any since removed. */
+	public int getVertexCount() {
+		return vertexCount;
+	}
+
+	/** Returns the number of edges added, including any since removed. */
+	public int getEdgeCount() {
+		return edgeCount;
+	}
+
+	public boolean containsVertex(int v) {
+		return v >= 0 && v < vertexCount && !vertexRemoved[v];
+	}
+
+	public boolean containsEdge(int e) {
+		return e >= 0 && e < edgeCount && !edgeRemoved[e];
+	}
+
+	public double getX(int v) {
+		return x[v];
+	}
+
+	public double getY(int v) {
+		return y[v];
+	}
+
+	/** Returns the Vertex for v, making one the first time it's asked for. */
+	public Vertex getVertex(int v) {
+		if (vertices[v] == null)
+			vertices[v] = new Vertex(x[v], y[v]);
+		return vertices[v];
+	}
+
+	public int getEdgeSource(int e) {
+		return source[e];
+	}
+
+	public int getEdgeTarget(int e) {
+		return target[e];
+	}
+
+	public int getOtherVertex(int e, int v) {
+		return source[e] == v ? target[e] : source[e];
+	}
+
+	public int degreeOf(int v) {
+		return degree[v];
+	}
+
+	/** Returns the edges touching v, in the order they were added. */
+	public int[] edgesOf(int v) {
+		return Arrays.copyOf(incident[v], degree[v]);
+	}
+
+	public Line lineForEdge(int e) {
+		return new Line(x[source[e]], y[source[e]], x[target[e]], y[target[e]]);
+	}
+
+	public int addVertex(double px, double py) {
+		if (vertexCount == x.length) {
+			int size = vertexCount * 2;
+			x = Arrays.copyOf(x, size);
+			y = Arrays.copyOf(y, size);
+			vertexRemoved = Arrays.copyOf(vertexRemoved, size);
+			incident = Arrays.copyOf(incident, size);
+			degree = Arrays.copyOf(degree, size);
+			vertices = Arrays.copyOf(vertices, size);
+		}
+		x[vertexCount] = px;
+		y[vertexCount] = py;
+		incident[vertexCount] = new int[2];
+		return vertexCount++;
+	}
+
+	/**
+	 * Returns the edge joining a and b, in either direction, or -1 if there
+	 * isn't one.
+	 */
+	public int getEdge(int a, int b) {
+		// look through whichever has fewer edges
+		int v = degree[a] <= degree[b] ? a : b, other = v == a ? b : a;
+		for (int i = 0; i < degree[v]; i++) {
+			if (getOtherVertex(incident[v][i], v) == other)
+				return incident[v][i];
+		}
+		return -1;
+	}
+
+	/**
+	 * Joins a to b, as Graph.addEdge.
+	 *
+	 * @return the new edge, or -1 if a and b were already joined
+	 * @throws IllegalArgumentException if a is b
+	 */
+	public int addEdge(int a, int b) {
+		if (a == b)
+			throw new IllegalArgumentException("loops not allowed");
+		if (getEdge(a, b) >= 0)
+			return -1;
+
+		if (edgeCount == source.length) {
+			int size = edgeCount * 2;
+			source = Arrays.copyOf(source, size);
+			target = Arrays.copyOf(target, size);
+			edgeRemoved = Arrays.copyOf(edgeRemoved, size);
+		}
+		source[edgeCount] = a;
+		target[edgeCount] = b;
+		addIncident(a, edgeCount);
+		addIncident(b, edgeCount);
+		return edgeCount++;
+	}
+
+	private void addIncident(int v, int e) {
+		if (degree[v] == incident[v].length)
+			incident[v] = Arrays.copyOf(incident[v], degree[v] * 2);
+		incident[v][degree[v]++] = e;
+	}
+
+	private void removeIncident(int v, int e) {
+		int[] list = incident[v];
+		for (int i = 0; i < degree[v]; i++) {
+			if (list[i] == e) {
+				System.arraycopy(list, i + 1, list, i, degree[v] - i - 1);
+				degree[v]--;
+				return;
+			}
+		}
+	}
+
+	public void removeEdge(int e) {
+		if (!containsEdge(e))
+			return;
+		edgeRemoved[e] = true;
+		removeIncident(source[e], e);
+		removeIncident(target[e], e);
+	}
+
+	/** Removes v and the edges touching it. */
+	public void removeVertex(int v) {
+		if (!containsVertex(v))
+			return;
+		while (degree[v] > 0)
+			removeEdge(incident[v][0]);
+		vertexRemoved[v] = true;
+	}
+
+	/**
+	 * Returns a new graph with vertices closer than epsilon merged. Each vertex
+	 * joins the first vertex kept that's within epsilon of it (found from a
+	 * grid rather than by looking at every one kept so far), or is kept
+	 * itself. Edges that end up joining a vertex to itself are dropped.
+	 */
+	public CompactGraph simplify(double epsilon) {
+		CompactGraph graph = new CompactGraph();
+		int[] toSnapped = new int[vertexCount];
+
+		VertexGrid kept = new VertexGrid(graph, epsilon);
+		for (int v = 0; v < vertexCount; v++) {
+			if (!containsVertex(v))
+				continue;
+			int snap = kept.first(x[v], y[v], epsilon);
+			if (snap < 0) {
+				snap = graph.addVertex(x[v], y[v]);
+				kept.add(snap);
+			}
+			toSnapped[v] = snap;
+		}
+
+		for (int e = 0; e < edgeCount; e++) {
+			if (!containsEdge(e))
+				continue;
+			int a = toSnapped[source[e]], b = toSnapped[target[e]];
+			if (a != b)
+				graph.addEdge(a, b);
+		}
+
+		return graph;
+	}
+
+	public void removeIntersections(double distSqrEpsilon) {
+		removeIntersections(distSqrEpsilon, null);
+	}
+
+	/**
+	 * Merges vertices closer than sqrt(distSqrEpsilon), splits edges where
+	 * they cross, and removes lone vertices lying on an edge.
+	 *
+	 * Checks cancel once per vertex merged and edge searched for crossings, throwing
+	 * CancelToken.Cancelled (and leaving the graph half done) if it has been
+	 * cancelled.
+	 */
+	public void removeIntersections(double distSqrEpsilon, CancelToken cancel) {
+		// begin: merge vertices that are close to each other
+		// each vertex (that hasn't been merged) takes in those near it, found
+		// from a grid rather than by looking at every vertex
+		VertexGrid near = new VertexGrid(this, Math.sqrt(distSqrEpsilon));
+		for (int v = 0; v < vertexCount; v++) {
+			if (containsVertex(v))
+				near.add(v);
+		}
+
+		// merging doesn't add vertices
+		int count = vertexCount;
+		for (int next = 0; next < count; next++) {
+			if (!containsVertex(next))
+				continue; // merged into an earlier vertex
+			CancelToken.check(cancel);
+
+			for (int v : near.within(x[next], y[next], distSqrEpsilon)) {
+				// if two DIFFERENT vertices are close to each other
+				if (v == next)
+					continue;
+
+				// merge together the two vertices: "next" and "v"
+				for (int e : edgesOf(v)) {
+					int other = getOtherVertex(e, v);
+					if (other != next)
+						addEdge(next, other);
+				}
+				// remove the merged vertex and edges that were incident on v
+				removeVertex(v);
+				near.remove(v);
+			}
+		}
+		// end: merge vertices that are close to each other
+
+		// begin: split edges where they cross
+		// Snapping a crossing to a nearby vertex bends the edges a little,
+		// which can (rarely) make a new crossing, so go round until there are
+		// none. This ends: two straight edges cross at most once, so once two
+		// edges have been split where they cross, their pieces aren't split
+		// against each other again (rounding can put the pieces a hair across
+		// each other). A round that splits anything splits a new pair, and
+		// there are only so many pairs.
+		Map<Integer, Integer> origin = new HashMap<Integer, Integer>();
+		for (int e = 0; e < edgeCount; e++) {
+			if (containsEdge(e))
+				origin.put(e, e);
+		}
+		Set<Long> crossed = new HashSet<Long>();
+		while (splitCrossings(distSqrEpsilon, origin, crossed, cancel))
+			;
+		// end: split edges where they cross
+
+		// remove degree 0 vertices that are too close to an edge
+		// that is, the vertex is basically on the edge, in which case
+		// it's as if it wasn't even there
+		for (int v = 0; v < vertexCount; v++) {
+			if (containsVertex(v) && degree[v] == 0 && isNearEdge(v, distSqrEpsilon)) {
+				assert (false);
+				removeVertex(v);
+			}
+		}
+	}
+
+	/** As GraphEditor.getNearestEdge(point of v, max, graph) != null. */
+	private boolean isNearEdge(int v, double max) {
+		Point2d p = new Point2d(x[v], y[v]);
+		for (int e = 0; e < edgeCount; e++) {
+			if (containsEdge(e) && lineForEdge(e).project(p, true).distance(p) < max)
+				return true;
+		}
+		return false;
+	}
+
+	/**
+	 * Splits every pair of edges that cross at the point they cross. The
+	 * candidate pairs come from a grid over the edges (see SegmentGrid) rather
+	 * than a sweep line (as utils.Intersector does): crossings are found in
+	 * time in proportion to the edges and crossings for the fairly even
+	 * drawings fold and cut is given, without a sweep's ordering of segments
+	 * that rounding can upset.
+	 *
+	 * As Graph did, a crossing within sqrt(distSqrEpsilon) of an end of
+	 * either edge (eg. at a T junction) is moved to that end, and one that
+	 * close to a crossing already placed on either edge (eg. three edges
+	 * crossing at a point) shares its vertex. Edges sharing a vertex aren't
+	 * split.
+	 *
+	 * @param origin the input edge each edge was cut from, kept up to date
+	 * @param crossed pairs of input edges already split where they cross,
+	 * which aren't split again
+	 * @return true if any edge was split
+	 */
+	private boolean splitCrossings(double distSqrEpsilon, Map<Integer, Integer> origin,
+			Set<Long> crossed, CancelToken cancel) {
+		List<Integer> edges = new ArrayList<Integer>();
+		for (int e = 0; e < edgeCount; e++) {
+			if (containsEdge(e))
+				edges.add(e);
+		}
+		if (edges.size() < 2)
+			return false;
+
+		List<Line> lines = new ArrayList<Line>(edges.size());
+		for (int e : edges)
+			lines.add(lineForEdge(e));
+
+		// Line.intersects accepts crossings a little way off the ends of the segments
+		SegmentGrid grid = new SegmentGrid(lines, 1e-5);
+
+		// the vertices to split each edge at
+		Map<Integer, List<Integer>> splits = new LinkedHashMap<Integer, List<Integer>>();
+
+		for (int i = 0; i < edges.size(); i++) {
+			CancelToken.check(cancel);
+			int e = edges.get(i);
+			int v0 = source[e], v1 = target[e];
+
+			for (int j : grid.getCandidates(i)) {
+				int f = edges.get(j);
+				int v2 = source[f], v3 = target[f];
+
+				if (v0 == v2 || v0 == v3 || v1 == v2 || v1 == v3)
+					continue;
+
+				int oe = origin.get(e), of = origin.get(f);
+				Long pair = oe < of ? ((long) oe << 32) | of : ((long) of << 32) | oe;
+				if (crossed.contains(pair))
+					continue;
+
+				Point2d intersection = lines.get(i).intersects(lines.get(j), true);
+				if (intersection == null)
+					continue;
+				crossed.add(pair);
+
+				int at = -1;
+				double best = distSqrEpsilon;
+				for (int v : snapTargets(splits, e, f)) {
+					double d = distanceSquared(v, intersection);
+					if (d <= best) {
+						at = v;
+						best = d;
+					}
+				}
+				if (at < 0)
+					at = addVertex(intersection.x, intersection.y);
+				addSplit(splits, e, at);
+				addSplit(splits, f, at);
+			}
+		}
+
+		boolean split = false;
+		for (Map.Entry<Integer, List<Integer>> entry : splits.entrySet()) {
+			int e = entry.getKey();
+			final int v0 = source[e], v1 = target[e];
+
+			List<Integer> at = entry.getValue();
+			at.remove(Integer.valueOf(v0));
+			at.remove(Integer.valueOf(v1));
+			if (at.isEmpty())
+				continue; // it only touches other edges at its ends
+
+			// in order along the edge
+			Collections.sort(at, new Comparator<Integer>() {
+				public int compare(Integer a, Integer b) {
+					return Double.compare(distanceSquared(v0, a), distanceSquared(v0, b));
+				}
+			});
+
+			removeEdge(e);
+			int prev = v0;
+			at.add(v1);
+			for (int v : at) {
+				int piece = addEdge(prev, v);
+				if (piece >= 0)
+					origin.put(piece, origin.get(e));
+				prev = v;
+			}
+			split = true;
+		}
+		return split;
+	}
+
+	/** The ends of e and f, and the crossings placed on them so far. */
+	private List<Integer> snapTargets(Map<Integer, List<Integer>> splits, int e, int f) {
+		List<Integer> targets = new ArrayList<Integer>(4);
+		targets.add(source[e]);
+		targets.add(target[e]);
+		targets.add(source[f]);
+		targets.add(target[f]);
+		if (splits.containsKey(e))
+			targets.addAll(splits.get(e));
+		if (splits.containsKey(f))
+			targets.addAll(splits.get(f));
+		return targets;
+	}
+
+	private double distanceSquared(int a, int b) {
+		double dx = x[a] - x[b], dy = y[a] - y[b];
+		return dx * dx + dy * dy;
+	}
+
+	private double distanceSquared(int v, Point2d p) {
+		double dx = x[v] - p.x, dy = y[v] - p.y;
+		return dx * dx + dy * dy;
+	}
+
+	private static void addSplit(Map<Integer, List<Integer>> splits, int e, int v) {
+		List<Integer> list = splits.get(e);
+		if (list == null) {
+			list = new ArrayList<Integer>(2);
+			splits.put(e, list);
+		}
+		if (!list.contains(v))
+			list.add(v);
+	}
+
+	/**
+	 * Finds the faces, as loops of vertices (see getVertex()), and which
+	 * loops lie inside which. Only works for a graph with no intersecting
+	 * edges.
+	 */
+	public BoundaryHierarchyTree computeBoundaryHierarchyTree() {
+		RotationSystem rotation = new RotationSystem(this);
+		boolean[] walked = new boolean[rotation.size()];
+		// the context of each half-edge once its loop has been made
+		OrientedLoop.EdgeContext[] contexts = new OrientedLoop.EdgeContext[rotation.size()];
+
+		List<OrientedLoop> loops = new ArrayList<OrientedLoop>();
+		List<Vertex> polygon = new ArrayList<Vertex>();
+		List<Integer> halfEdges = new ArrayList<Integer>();
+
+		for (int first = 0; first < rotation.size(); first++) {
+			if (walked[first])
+				continue;
+
+			polygon.clear();
+			halfEdges.clear();
+			double sumTurnAngles = 0;
+
+			int h = first;
+			do {
+				polygon.add(getVertex(rotation.origin[h]));
+				halfEdges.add(h);
+				walked[h] = true;
+
+				sumTurnAngles += rotation.turn(h);
+				h = rotation.next[h];
+			} while (h != first);
+			// If sumTurnAngles > 0, then counter-clockwise.
+			OrientedLoop loop = new OrientedLoop(polygon, sumTurnAngles > 0);
+			loops.add(loop);
+			// Match each edge with the other side, if that's been walked already.
+			for (int i = 0; i < halfEdges.size(); i++) {
+				int he = halfEdges.get(i);
+				contexts[he] = loop.getEdgeContexts().get(i);
+				if (contexts[he ^ 1] != null) {
+					contexts[he].connect(contexts[he ^ 1]);
+				}
+			}
+		}
+
+		// Also put in the degree-zero vertices.
+		for (int v = 0; v < vertexCount; v++) {
+			if (containsVertex(v) && degree[v] == 0) {
+				loops.add(new OrientedLoop(Arrays.asList(getVertex(v)), false));
+			}
+		}
+
+		BoundaryHierarchyTree hierarchyTree = new BoundaryHierarchyTree();
+		hierarchyTree.insertAll(loops);
+		return hierarchyTree;
+	}
+
+	/** In the same form as Graph's toString. */
+	public String toString() {
+		List<Vertex> vertexList = new ArrayList<Vertex>();
+		for (int v = 0; v < vertexCount; v++) {
+			if (containsVertex(v))
+				vertexList.add(getVertex(v));
+		}
+		List<String> edgeList = new ArrayList<String>();
+		for (int e = 0; e < edgeCount; e++) {
+			if (containsEdge(e))
+				edgeList.add("{" + getVertex(source[e]) + "," + getVertex(target[e]) + "}");
+		}
+		return "(" + vertexList + ", " + edgeList + ")";
+	}
+}
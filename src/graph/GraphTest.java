@@ -2,8 +2,14 @@ package graph;
 
 import graph.Graph.PairOfVertices;
 
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
 import java.util.Random;
 
+import javax.vecmath.Point2d;
+
 import org.junit.Before;
 import org.junit.Test;
 
@@ -239,6 +245,143 @@ public class GraphTest {
 	}
 
 
+	@Test public void testRemoveIntersectionsTJunction() {
+		// *
+		// |
+		// *---*---*
+		// the end of the upright lies on the other edge
+		Graph g = new Graph();
+		Vertex v0 = new Vertex(-1,0);
+		Vertex v1 = new Vertex(1,0);
+		Vertex v2 = new Vertex(0,0);
+		Vertex v3 = new Vertex(0,1);
+		g.addVertex(v0);
+		g.addVertex(v1);
+		g.addVertex(v2);
+		g.addVertex(v3);
+		g.addEdge(v0, v1);
+		g.addEdge(v2, v3);
+
+		g.removeIntersections(0.0001);
+		Assert.assertEquals(4, g.vertexSet().size());
+		Assert.assertEquals(3, g.edgeSet().size());
+		Assert.assertEquals(3, g.degreeOf(nearest(g, 0, 0)));
+	}
+
+
+	@Test public void testRemoveIntersectionsThroughOnePoint() {
+		// three edges crossing at (0.1,0.2), where rounding puts each
+		// pair's crossing in a slightly different place
+		double[][] ends = {{-0.9,-0.1, 1.1,0.5}, {-0.7,1.3, 0.9,-0.9}, {0.4,-1.1, -0.2,1.5}};
+
+		// within epsilon of each other, they share one vertex
+		Graph g = lines(ends);
+		g.removeIntersections(0.0001);
+		Assert.assertEquals(7, g.vertexSet().size());
+		Assert.assertEquals(6, g.edgeSet().size());
+		Assert.assertEquals(6, g.degreeOf(nearest(g, 0.1, 0.2)));
+
+		// with no epsilon they're kept apart, and the pieces between them
+		// aren't split again
+		g = lines(ends);
+		g.removeIntersections(0);
+		int numEnds = 0;
+		for (Vertex v : g.vertexSet()) {
+			if (v.getPoint().distance(new Point2d(0.1, 0.2)) > 1e-9) {
+				Assert.assertEquals(1, g.degreeOf(v));
+				numEnds++;
+			}
+		}
+		Assert.assertEquals(6, numEnds);
+	}
+
+
+	private static Graph lines(double[][] ends) {
+		Graph g = new Graph();
+		for (double[] e : ends) {
+			Vertex a = new Vertex(e[0],e[1]);
+			Vertex b = new Vertex(e[2],e[3]);
+			g.addVertex(a);
+			g.addVertex(b);
+			g.addEdge(a, b);
+		}
+		return g;
+	}
+
+
+	@Test public void testRemoveIntersectionsNearMiss() {
+		//    *
+		//    |
+		// *--+--*
+		//    |
+		//    *
+		// the crossing is 0.004 from the top of the upright, within
+		// epsilon, so the flat edge is split there rather than at the crossing
+		Graph g = new Graph();
+		Vertex v0 = new Vertex(-1,0);
+		Vertex v1 = new Vertex(1,0);
+		Vertex v2 = new Vertex(0.003,-1);
+		Vertex v3 = new Vertex(0.003,0.004);
+		g.addVertex(v0);
+		g.addVertex(v1);
+		g.addVertex(v2);
+		g.addVertex(v3);
+		g.addEdge(v0, v1);
+		g.addEdge(v2, v3);
+
+		g.removeIntersections(0.0001);
+		Assert.assertEquals(4, g.vertexSet().size());
+		Assert.assertEquals(3, g.edgeSet().size());
+		Vertex top = nearest(g, 0.003, 0.004);
+		Assert.assertEquals(0.004, top.getPoint().y);
+		Assert.assertEquals(3, g.degreeOf(top));
+	}
+
+
+	private static Vertex nearest(Graph g, double x, double y) {
+		Point2d p = new Point2d(x, y);
+		Vertex best = null;
+		for (Vertex v : g.vertexSet()) {
+			if (best == null || v.getPoint().distanceSquared(p) < best.getPoint().distanceSquared(p))
+				best = v;
+		}
+		return best;
+	}
+
+
+	@Test public void testInsertAll() {
+		// A contains B contains C; D contains F; D and E side by side
+		List<OrientedLoop> loops = new ArrayList<OrientedLoop>();
+		for (double[] s : new double[][] {{0,0,10}, {2,2,6}, {4,4,2}, {20,0,5}, {21,1,2}, {30,0,5}}) {
+			loops.add(square(s[0], s[1], s[2], true));
+			loops.add(square(s[0], s[1], s[2], false));
+		}
+
+		Random r = new Random(2010);
+		for (int i = 0; i < 20; i++) {
+			BoundaryHierarchyTree one = new BoundaryHierarchyTree();
+			for (OrientedLoop l : loops)
+				one.insert(l);
+			BoundaryHierarchyTree all = new BoundaryHierarchyTree();
+			all.insertAll(loops);
+			Assert.assertEquals(one.toString(), all.toString());
+
+			Collections.shuffle(loops, r);
+		}
+	}
+
+
+	// counter clockwise when inside (the face within the square), else clockwise
+	private static OrientedLoop square(double x, double y, double size, boolean inside) {
+		List<Vertex> vs = new ArrayList<Vertex>(Arrays.asList(
+				new Vertex(x, y), new Vertex(x + size, y),
+				new Vertex(x + size, y + size), new Vertex(x, y + size)));
+		if (!inside)
+			Collections.reverse(vs);
+		return new OrientedLoop(vs, inside);
+	}
+
+
 	@Test public void testCalculateAngle() {
 		double d;
 		
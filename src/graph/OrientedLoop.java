@@ -5,8 +5,10 @@ import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 
 import javax.vecmath.Point2d;
 import javax.vecmath.Vector2d;
@@ -117,18 +119,51 @@ public final class OrientedLoop {
 		return pathCache;
 	}
 	
+	private double[] boundsCache = null;
+	
+	/**
+	 * Returns the bounding box of the vertices, as {minX, minY, maxX, maxY}.
+	 * Like the path, it's computed once, so the vertices mustn't move.
+	 */
+	double[] getBounds() {
+		if (boundsCache == null) {
+			double minX = Double.MAX_VALUE, minY = Double.MAX_VALUE;
+			double maxX = -Double.MAX_VALUE, maxY = -Double.MAX_VALUE;
+			for (Vertex v : this.vertices) {
+				minX = Math.min(minX, v.getPoint().x);
+				minY = Math.min(minY, v.getPoint().y);
+				maxX = Math.max(maxX, v.getPoint().x);
+				maxY = Math.max(maxY, v.getPoint().y);
+			}
+			boundsCache = new double[] {minX, minY, maxX, maxY};
+		}
+		return boundsCache;
+	}
+	
+	/** Returns the vertex isBoundedBy tests against other loops. */
+	Vertex getSample() {
+		return this.vertices.get(0);
+	}
+	
+	private Set<Vertex> vertexSetCache = null;
+	
 	/** Assumptions: loops were obtained by walking loops, graph has been simplified. */
 	public boolean isBoundedBy(OrientedLoop other) {
 		// Pick a vertex.
-		Vertex sample = this.getVertices().iterator().next();
-		for (Vertex v : other.getVertices()) {
-			if (sample == v) {
-				assert other.isInside() || this.isInside();
-				return !other.isInside();
-			}
+		Vertex sample = getSample();
+		// Nothing outside the other's bounds is inside it (or one of its vertices).
+		double[] bounds = other.getBounds();
+		Point2d p = sample.getPoint();
+		if (p.x < bounds[0] || p.y < bounds[1] || p.x > bounds[2] || p.y > bounds[3])
+			return false;
+		if (other.vertexSetCache == null)
+			other.vertexSetCache = new HashSet<Vertex>(other.getVertices());
+		if (other.vertexSetCache.contains(sample)) {
+			assert other.isInside() || this.isInside();
+			return !other.isInside();
 		}
 		// Not degenerate.
-		return other.asPath().contains(sample.getPoint().x, sample.getPoint().y);
+		return other.asPath().contains(p.x, p.y);
 	}
 	
 	private static void addPerturbedVertex(Vertex point, Corner corner,
@@ -0,0 +1,95 @@
+package graph;
+
+import java.util.Arrays;
+import java.util.Comparator;
+
+/**
+ * The edges of a CompactGraph as directed half-edges, numbered so that edge k is
+ * half-edges 2k and 2k+1, each the twin (h ^ 1) of the other. Around each
+ * vertex the outgoing half-edges are sorted by angle, once, so the walk along a
+ * face (as calculateNextLeftmostPair, turning as far left as possible) is a
+ * lookup.
+ */
+class RotationSystem {
+	// per half-edge: the vertex it leaves, its direction, the half-edge after it on its face
+	final int[] origin;
+	final double[] angle;
+	final int[] next;
+
+	public RotationSystem(CompactGraph g) {
+		int vertexCount = g.getVertexCount();
+
+		int halfEdges = 0;
+		for (int e = 0; e < g.getEdgeCount(); e++) {
+			if (g.containsEdge(e))
+				halfEdges += 2;
+		}
+		origin = new int[halfEdges];
+		angle = new double[halfEdges];
+		next = new int[halfEdges];
+
+		int[] degree = new int[vertexCount];
+		int h = 0;
+		for (int e = 0; e < g.getEdgeCount(); e++) {
+			if (!g.containsEdge(e))
+				continue;
+			origin[h] = g.getEdgeSource(e);
+			origin[h + 1] = g.getEdgeTarget(e);
+			degree[origin[h]]++;
+			degree[origin[h + 1]]++;
+			h += 2;
+		}
+
+		for (h = 0; h < halfEdges; h++) {
+			int from = origin[h], to = origin[h ^ 1];
+			angle[h] = Math.atan2(
+				g.getY(to) - g.getY(from),
+				g.getX(to) - g.getX(from));
+		}
+
+		// outgoing half-edges of vertex v are around[start[v]] to around[start[v + 1] - 1]
+		int[] start = new int[vertexCount + 1];
+		for (int v = 0; v < vertexCount; v++)
+			start[v + 1] = start[v] + degree[v];
+		Integer[] around = new Integer[halfEdges];
+		int[] fill = Arrays.copyOf(start, vertexCount);
+		for (h = 0; h < halfEdges; h++)
+			around[fill[origin[h]]++] = h;
+
+		Comparator<Integer> byAngle = new Comparator<Integer>() {
+			public int compare(Integer a, Integer b) {
+				return Double.compare(angle[a], angle[b]);
+			}
+		};
+		for (int v = 0; v < vertexCount; v++) {
+			Arrays.sort(around, start[v], start[v + 1], byAngle);
+			int n = start[v + 1] - start[v];
+			// arriving at v along the twin of out, the leftmost turn is the
+			// half-edge just clockwise of out (back along itself if it's the only one)
+			for (int i = 0; i < n; i++) {
+				int out = around[start[v] + i];
+				next[out ^ 1] = around[start[v] + (i + n - 1) % n];
+			}
+		}
+	}
+
+	public int size() {
+		return origin.length;
+	}
+
+	/**
+	 * The angle turned from half-edge h to half-edge next[h]: -PI going back
+	 * along h, otherwise the same as Graph.calculateAngle.
+	 */
+	public double turn(int h) {
+		int n = next[h];
+		if (n == (h ^ 1))
+			return -Math.PI;
+		double diff = angle[n] - angle[h];
+		if (diff >= Math.PI)
+			return diff - 2 * Math.PI;
+		if (diff < -Math.PI)
+			return diff + 2 * Math.PI;
+		return diff;
+	}
+}
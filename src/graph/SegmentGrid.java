@@ -0,0 +1,139 @@
+package graph;
+
+import java.util.Arrays;
+import java.util.List;
+
+import utils.Line;
+
+/**
+ * A uniform grid over some line segments, to find the pairs that might cross
+ * without testing every segment against every other. A segment is registered
+ * in each cell it passes through (padded by a tolerance), so two segments that
+ * touch, to within the tolerance, share a cell.
+ *
+ * As in straightskeleton.EdgeGrid, there are about as many cells as segments,
+ * and no more than MAX_CELLS along a side.
+ */
+class SegmentGrid {
+	final static int MAX_CELLS = 256;
+
+	private Line[] lines;
+	private double tol;
+	private double minX, minY, cellSize;
+	private int nX, nY;
+	private int[][] cells;
+	private int[] cellSizes;
+
+	public SegmentGrid(List<Line> lines, double tol) {
+		this.lines = lines.toArray(new Line[lines.size()]);
+		this.tol = tol;
+
+		double maxX = -Double.MAX_VALUE, maxY = -Double.MAX_VALUE;
+		minX = minY = Double.MAX_VALUE;
+		for (Line l : this.lines) {
+			minX = Math.min(minX, Math.min(l.start.x, l.end.x));
+			minY = Math.min(minY, Math.min(l.start.y, l.end.y));
+			maxX = Math.max(maxX, Math.max(l.start.x, l.end.x));
+			maxY = Math.max(maxY, Math.max(l.start.y, l.end.y));
+		}
+		minX -= tol;
+		minY -= tol;
+		double width = maxX + tol - minX, height = maxY + tol - minY;
+
+		int n = Math.max(1, Math.min(MAX_CELLS, (int) Math.ceil(Math.sqrt(this.lines.length))));
+		cellSize = Math.max(Math.max(width, height) / n, tol);
+		if (!(cellSize > 0))
+			cellSize = 1; // every segment is a point
+		nX = Math.max(1, (int) Math.ceil(width / cellSize));
+		nY = Math.max(1, (int) Math.ceil(height / cellSize));
+
+		cells = new int[nX * nY][];
+		cellSizes = new int[nX * nY];
+
+		for (int i = 0; i < this.lines.length; i++) {
+			for (int cell : cellsOf(this.lines[i])) {
+				add(cell, i);
+			}
+		}
+	}
+
+	/**
+	 * @return the cells the (padded) segment passes through, column by column
+	 */
+	private int[] cellsOf(Line l) {
+		double x0 = l.start.x, y0 = l.start.y, x1 = l.end.x, y1 = l.end.y;
+		if (x1 < x0) {
+			double t = x0; x0 = x1; x1 = t;
+			t = y0; y0 = y1; y1 = t;
+		}
+
+		int[] out = new int[8];
+		int count = 0;
+
+		int i0 = column(x0 - tol), i1 = column(x1 + tol);
+		for (int i = i0; i <= i1; i++) {
+			// the part of the segment within this column
+			double xa = Math.max(x0, minX + i * cellSize), xb = Math.min(x1, minX + (i + 1) * cellSize);
+			double ya = y0, yb = y1;
+			if (x1 - x0 > 0) {
+				ya = y0 + (Math.min(Math.max(xa, x0), x1) - x0) * (y1 - y0) / (x1 - x0);
+				yb = y0 + (Math.min(Math.max(xb, x0), x1) - x0) * (y1 - y0) / (x1 - x0);
+			}
+
+			int j0 = row(Math.min(ya, yb) - tol), j1 = row(Math.max(ya, yb) + tol);
+			for (int j = j0; j <= j1; j++) {
+				if (count == out.length)
+					out = Arrays.copyOf(out, count * 2);
+				out[count++] = j * nX + i;
+			}
+		}
+		return Arrays.copyOf(out, count);
+	}
+
+	private int column(double x) {
+		return Math.max(0, Math.min(nX - 1, (int) Math.floor((x - minX) / cellSize)));
+	}
+
+	private int row(double y) {
+		return Math.max(0, Math.min(nY - 1, (int) Math.floor((y - minY) / cellSize)));
+	}
+
+	private void add(int cell, int index) {
+		int[] list = cells[cell];
+		if (list == null)
+			list = cells[cell] = new int[4];
+		else if (cellSizes[cell] == list.length)
+			list = cells[cell] = Arrays.copyOf(list, list.length * 2);
+		list[cellSizes[cell]++] = index;
+	}
+
+	/**
+	 * @return the (indices of) segments after the given one that share a cell
+	 * with it, in order. Each pair that might cross is found once, from its
+	 * first segment.
+	 */
+	public int[] getCandidates(int index) {
+		int[] found = new int[16];
+		int count = 0;
+
+		for (int cell : cellsOf(lines[index])) {
+			int[] list = cells[cell];
+			for (int k = 0; k < cellSizes[cell]; k++) {
+				if (list[k] <= index)
+					continue;
+				if (count == found.length)
+					found = Arrays.copyOf(found, count * 2);
+				found[count++] = list[k];
+			}
+		}
+
+		// a segment is registered in many cells, sorting brings repeats together
+		Arrays.sort(found, 0, count);
+		int unique = 0;
+		for (int k = 0; k < count; k++) {
+			if (unique == 0 || found[k] != found[unique - 1])
+				found[unique++] = found[k];
+		}
+		return Arrays.copyOf(found, unique);
+	}
+}
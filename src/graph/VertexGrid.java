@@ -0,0 +1,104 @@
+package graph;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Vertices of a CompactGraph hashed by the square of a grid they lie in
+ * (floor(p / distance)), to find those near a point without looking at them
+ * all. The squares are at least as big as the distance searched for, so only
+ * the square the point is in and its eight neighbours need looking at.
+ */
+class VertexGrid {
+	private CompactGraph graph;
+	private double cellSize;
+	private Map<Long, List<Integer>> cells = new HashMap<Long, List<Integer>>();
+
+	/**
+	 * @param distance the furthest first() and within() will look
+	 */
+	public VertexGrid(CompactGraph graph, double distance) {
+		this.graph = graph;
+		// with no distance only coincident points are found, any size will do
+		cellSize = distance > 0 ? distance : 1;
+	}
+
+	public void add(int v) {
+		Long key = key(graph.getX(v), graph.getY(v));
+		List<Integer> list = cells.get(key);
+		if (list == null) {
+			list = new ArrayList<Integer>(2);
+			cells.put(key, list);
+		}
+		list.add(v);
+	}
+
+	/**
+	 * Removes a vertex, which mustn't have moved since it was added.
+	 */
+	public void remove(int v) {
+		List<Integer> list = cells.get(key(graph.getX(v), graph.getY(v)));
+		if (list != null)
+			list.remove(Integer.valueOf(v));
+	}
+
+	/**
+	 * @return the lowest numbered vertex of those closer than distance to
+	 * (x, y), or -1. distance shouldn't be bigger than the grid's.
+	 */
+	public int first(double x, double y, double distance) {
+		int first = -1;
+		long cx = cell(x), cy = cell(y);
+		for (long i = cx - 1; i <= cx + 1; i++) {
+			for (long j = cy - 1; j <= cy + 1; j++) {
+				List<Integer> list = cells.get(key(i, j));
+				if (list == null)
+					continue;
+				for (int v : list) {
+					if ((first < 0 || v < first) && Math.sqrt(distanceSquared(v, x, y)) < distance)
+						first = v;
+				}
+			}
+		}
+		return first;
+	}
+
+	/**
+	 * @return every vertex no more than sqrt(distSqr) from (x, y)
+	 */
+	public List<Integer> within(double x, double y, double distSqr) {
+		List<Integer> out = new ArrayList<Integer>();
+		long cx = cell(x), cy = cell(y);
+		for (long i = cx - 1; i <= cx + 1; i++) {
+			for (long j = cy - 1; j <= cy + 1; j++) {
+				List<Integer> list = cells.get(key(i, j));
+				if (list == null)
+					continue;
+				for (int v : list) {
+					if (distanceSquared(v, x, y) <= distSqr)
+						out.add(v);
+				}
+			}
+		}
+		return out;
+	}
+
+	private double distanceSquared(int v, double x, double y) {
+		double dx = graph.getX(v) - x, dy = graph.getY(v) - y;
+		return dx * dx + dy * dy;
+	}
+
+	private Long key(double x, double y) {
+		return key(cell(x), cell(y));
+	}
+
+	private long cell(double c) {
+		return (long) Math.floor(c / cellSize);
+	}
+
+	private static Long key(long i, long j) {
+		return (i << 32) ^ (j & 0xffffffffL);
+	}
+}
@@ -0,0 +1,652 @@
+package straightskeleton;
+
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import javax.vecmath.Point3d;
+import straightskeleton.Output.Face;
+import straightskeleton.ui.DirectionHeightEvent;
+import utils.CancelToken;
+import utils.Loop;
+import utils.LoopL;
+import utils.MultiMap;
+
+/**
+ * A skeleton backend that keeps the wavefront in primitive arrays (WavefrontArrays)
+ * instead of Corner and Edge objects, for large inputs where the object graph (and
+ * its hashing) dominates the heap.
+ *
+ * Only constant angles are supported - every edge's machine must have just its initial
+ * direction, between 0 and PI/2. Events are edge events (two neighbouring corners meet)
+ * and split events (a reflex corner hits another edge), found by colliding planes and
+ * queued in a primitive heap. Invalid events are dropped when they're polled, rather
+ * than removed from the queue.
+ *
+ * The input Corners and Edges are only used to build the Output. As arcs are stored by
+ * the corner that traced them, Output.Faces are materialized lazily: getFace builds a
+ * single face, getOutput all of them. Until then, the output field is empty.
+ *
+ * Check supports(input) first; setup throws an IllegalArgumentException for input it
+ * can't skeleton.
+ */
+public class ArraySkeleton extends Skeleton
+{
+    public WavefrontArrays wave;
+
+    // input edge by id, the corners that were dropped as their neighbours are parallel
+    Edge[] edges;
+    Set<Corner> dropped = new LinkedHashSet<Corner>();
+    MultiMap<Edge, Corner> allEdges;
+    LoopL<Corner> input;
+
+    // a collinear edge uses the plane (and output face) of its representative
+    int[] rep;
+
+    // height and distance tolerances, scaled to the input
+    double heightTol, segmentTol;
+    // no collisions happen above this
+    double maxHeight;
+    // corners below this id are the input's
+    int inputCorners;
+
+    // event queue: height, location and corners. b >= 0 is an edge event between a and
+    // its next corner b, otherwise a split event between a and edge -b-1.
+    int heapSize = 0;
+    double[] heapH = new double[64], heapX = new double[64], heapY = new double[64];
+    int[] heapA = new int[64], heapB = new int[64];
+
+    // scratch
+    private double[] pt = new double[3];
+
+    // lazy output: arcs indexed by face (edge id)
+    int[] faceArcStart, faceArcs;
+    boolean[] materialized;
+    boolean outputPrepared = false;
+
+    // call setup yourself (eg. after setCancel)
+    ArraySkeleton()
+    {
+    }
+
+    public ArraySkeleton( LoopL<Corner> corners )
+    {
+        setup( corners );
+    }
+
+    /**
+     * @param input list of edges, edges shouldn't be repeated!
+     */
+    public ArraySkeleton( LoopL<Edge> input, boolean javaGenericsAreABigPileOfShite )
+    {
+        setupForEdges( input );
+    }
+
+    @Override
+    public void setup( LoopL<Corner> input )
+    {
+        this.input = input;
+        height = 0;
+
+        allEdges = new MultiMap<Edge, Corner>();
+        for (Corner c : input.eIterator())
+            allEdges.put( c.nextL, c );
+
+        for (Edge e : allEdges.keySet())
+            if ( Double.isNaN( getAngle( e ) ) )
+                throw new IllegalArgumentException( "only constant, inwards, non-horizontal angles are supported: " + e );
+
+        int cornerCount = input.count();
+        wave = new WavefrontArrays( cornerCount * 2, allEdges.keySet().size() );
+        edges = new Edge[allEdges.keySet().size()];
+
+        Map<Edge, Integer> ids = new LinkedHashMap<Edge, Integer>();
+        double minX = Double.MAX_VALUE, minY = Double.MAX_VALUE, maxX = -Double.MAX_VALUE, maxY = -Double.MAX_VALUE;
+        double minSpeed = Double.MAX_VALUE;
+
+        for (Edge e : allEdges.keySet())
+        {
+            double angle = getAngle( e );
+            e.setAngle( angle );
+
+            int id = wave.addEdge( e.start.x, e.start.y, e.start.z, e.end.x, e.end.y, angle );
+            ids.put( e, id );
+            edges[id] = e;
+            minSpeed = Math.min( minSpeed, Math.tan( angle ) );
+        }
+
+        rep = new int[edges.length];
+        for (int i = 0; i < rep.length; i++)
+            rep[i] = i;
+
+        for (Corner c : input.eIterator())
+        {
+            minX = Math.min( minX, c.x );
+            minY = Math.min( minY, c.y );
+            maxX = Math.max( maxX, c.x );
+            maxY = Math.max( maxY, c.y );
+
+            // parallel consecutive edges become one (as CollisionQ does for the other engine). As
+            // there, the previous edge is kept, and the next is compared to the one it merged into.
+            int keep = find( ids.get( c.prevL ) ), go = find( ids.get( c.nextL ) );
+            if ( keep != go && edges[keep].sameDirectedLine( c.nextL ) )
+            {
+                rep[go] = keep;
+                dropped.add( c );
+            }
+        }
+
+        double extent = Math.max( 1, Math.max( maxX - minX, maxY - minY ) );
+        heightTol = extent * 1e-9;
+        segmentTol = extent * 1e-7;
+        // nothing inside the bounds is further than this from the boundary
+        maxHeight = Math.min( maxX - minX, maxY - minY ) / 2 / minSpeed + segmentTol;
+
+        for (Loop<Corner> loop : input)
+        {
+            int first = -1, last = -1;
+            for (Corner c : loop)
+            {
+                if ( dropped.contains( c ) )
+                    continue;
+
+                int k = wave.addCorner( c.x, c.y, c.z, find( ids.get( c.prevL ) ), find( ids.get( c.nextL ) ) );
+                if ( first == -1 )
+                    first = k;
+                else
+                    wave.link( last, k );
+                last = k;
+            }
+
+            if ( first != -1 )
+                wave.link( last, first );
+        }
+
+        inputCorners = wave.cornerCount;
+
+        for (int k = 0; k < wave.cornerCount; k++)
+            if ( wave.next[k] == wave.prev[k] ) // one or two corners aren't a polygon
+                wave.kill( k, wave.x[k], wave.y[k], wave.z[k] );
+
+        for (int k = 0; k < wave.cornerCount; k++)
+            if ( wave.live[k] )
+            {
+                CancelToken.check( cancel );
+                findEvents( k, false );
+            }
+    }
+
+    /**
+     * @return true if every edge has a constant angle, between 0 and PI/2: a machine with
+     * just its initial direction, or no machine.
+     */
+    public static boolean supports( LoopL<Edge> input )
+    {
+        for (Edge e : input.eIterator())
+            if ( Double.isNaN( getAngle( e ) ) )
+                return false;
+        return true;
+    }
+
+    /**
+     * @return the edge's constant angle, or NaN if it doesn't have one we support
+     */
+    private static double getAngle( Edge e )
+    {
+        double angle;
+        if ( e.machine == null )
+            angle = e.getAngle();
+        else
+        {
+            List<HeightEvent> events = e.machine.getDirections();
+            if ( events.size() != 1 || !( events.get( 0 ) instanceof DirectionHeightEvent ) )
+                return Double.NaN;
+
+            angle = ( (DirectionHeightEvent) events.get( 0 ) ).newAngle;
+        }
+
+        if ( angle <= 0 || angle >= Math.PI / 2 )
+            return Double.NaN;
+
+        return angle;
+    }
+
+    private int find( int e )
+    {
+        while ( rep[e] != e )
+            e = rep[e];
+        return e;
+    }
+
+    /**
+     * Execute the skeleton algorithm. The output isn't built until it's asked for (or
+     * there's a listener).
+     */
+    @Override
+    public void skeleton()
+    {
+        WavefrontArrays w = wave;
+
+        while ( heapSize > 0 )
+        {
+            CancelToken.check( cancel );
+
+            double h = heapH[0], px = heapX[0], py = heapY[0];
+            int a = heapA[0], b = heapB[0];
+            pop();
+
+            if ( b >= 0 )
+            {
+                if ( !w.live[a] || !w.live[b] || w.next[a] != b )
+                    continue;
+
+                height = Math.max( height, h );
+                edgeEvent( a, b, px, py, h );
+            }
+            else
+            {
+                if ( !w.live[a] )
+                    continue;
+
+                int v = findSegment( a, -b - 1, px, py, h );
+                if ( v == -1 )
+                    continue;
+
+                height = Math.max( height, h );
+                splitEvent( a, -b - 1, v, px, py, h );
+            }
+        }
+
+        // a listener can't wait to ask for the output
+        if ( output.hasListener() )
+        {
+            getOutput();
+            output.completeAll();
+        }
+    }
+
+    /**
+     * Corners a and b (its next) meet, removing the edge between them.
+     */
+    private void edgeEvent( int a, int b, double px, double py, double h )
+    {
+        WavefrontArrays w = wave;
+        int p = w.prev[a], n = w.next[b];
+
+        if ( p == b ) // two corners
+        {
+            w.kill( a, px, py, h );
+            w.kill( b, px, py, h );
+        }
+        else if ( p == n ) // a triangle, all three meet
+        {
+            w.kill( a, px, py, h );
+            w.kill( b, px, py, h );
+            w.kill( p, px, py, h );
+        }
+        else
+        {
+            int k = w.addCorner( px, py, h, w.prevEdge[a], w.nextEdge[b] );
+            w.kill( a, px, py, h );
+            w.kill( b, px, py, h );
+            w.link( p, k );
+            w.link( k, n );
+            findEvents( k, true );
+        }
+    }
+
+    /**
+     * Reflex corner a hits the segment of edge e that starts at corner v, splitting it in two.
+     * If v's loop isn't a's, this joins the two loops instead.
+     */
+    private void splitEvent( int a, int e, int v, double px, double py, double h )
+    {
+        WavefrontArrays w = wave;
+        int p = w.prev[a], n = w.next[a], u = w.next[v];
+
+        int k1 = w.addCorner( px, py, h, w.prevEdge[a], e ),
+            k2 = w.addCorner( px, py, h, e, w.nextEdge[a] );
+
+        w.kill( a, px, py, h );
+        w.link( p, k1 );
+        w.link( k1, u );
+        w.link( v, k2 );
+        w.link( k2, n );
+
+        collapseOrFindEvents( k1, h );
+        collapseOrFindEvents( k2, h );
+    }
+
+    /**
+     * A new corner in a loop of two encloses nothing - both corners end at its neighbour.
+     */
+    private void collapseOrFindEvents( int k, double h )
+    {
+        WavefrontArrays w = wave;
+        if ( !w.live[k] )
+            return;
+
+        int o = w.next[k];
+        if ( o == w.prev[k] )
+        {
+            w.locate( o, h, pt );
+            double ox = pt[0], oy = pt[1];
+            w.kill( o, ox, oy, h );
+            w.kill( k, ox, oy, h );
+        }
+        else
+            findEvents( k, true );
+    }
+
+    /**
+     * Queues the edge events with both neighbours of k, and if it's reflex its split events.
+     * @param withPrev false to only look forwards when seeding every corner.
+     */
+    private void findEvents( int k, boolean withPrev )
+    {
+        if ( withPrev )
+            addEdgeEvent( wave.prev[k], k );
+        addEdgeEvent( k, wave.next[k] );
+
+        if ( wave.isReflex( k ) )
+            addSplitEvents( k );
+    }
+
+    private void addEdgeEvent( int a, int b )
+    {
+        WavefrontArrays w = wave;
+
+        if ( w.prevEdge[a] == w.nextEdge[b] || !w.collide( w.prevEdge[a], w.nextEdge[a], w.nextEdge[b], pt ) )
+            return;
+
+        if ( pt[2] < Math.max( w.z[a], w.z[b] ) - heightTol )
+            return; // diverging
+
+        push( pt[2], pt[0], pt[1], a, b );
+    }
+
+    /**
+     * Collides a reflex corner with every edge that's still on the wavefront. Whether the
+     * edge is still there at that height is checked when the event is polled.
+     */
+    private void addSplitEvents( int k )
+    {
+        WavefrontArrays w = wave;
+        int pe = w.prevEdge[k], ne = w.nextEdge[k];
+
+        for (int e = 0; e < w.edgeCount; e++)
+        {
+            if ( e == pe || e == ne || w.firstSegment( e ) == -1 )
+                continue;
+
+            if ( !w.collide( pe, ne, e, pt ) )
+                continue;
+
+            // a split where the corner was created is a vertex event, which the edge events handle
+            if ( pt[2] < w.z[k] + heightTol || pt[2] > maxHeight )
+                continue;
+
+            push( pt[2], pt[0], pt[1], k, -e - 1 );
+        }
+    }
+
+    /**
+     * @return the corner starting the segment of edge e that contains the given point
+     * at height h, or -1 if there is none. Segments adjacent to corner a are ignored.
+     */
+    private int findSegment( int a, int e, double px, double py, double h )
+    {
+        WavefrontArrays w = wave;
+
+        // edge direction is (b,-a)
+        double ex = w.b[e], ey = -w.a[e], t = px * ex + py * ey;
+
+        for (int v = w.firstSegment( e ); v != -1; v = w.nextSegment( v ))
+        {
+            int u = w.next[v];
+            if ( v == a || u == a )
+                continue;
+
+            w.locate( v, h, pt );
+            double tv = pt[0] * ex + pt[1] * ey;
+            w.locate( u, h, pt );
+            double tu = pt[0] * ex + pt[1] * ey;
+
+            if ( t >= tv - segmentTol && t <= tu + segmentTol )
+                return v;
+        }
+        return -1;
+    }
+
+    private void push( double h, double px, double py, int a, int b )
+    {
+        if ( heapSize == heapH.length )
+        {
+            int size = heapSize * 2;
+            heapH = Arrays.copyOf( heapH, size );
+            heapX = Arrays.copyOf( heapX, size );
+            heapY = Arrays.copyOf( heapY, size );
+            heapA = Arrays.copyOf( heapA, size );
+            heapB = Arrays.copyOf( heapB, size );
+        }
+
+        int i = heapSize++;
+        while ( i > 0 )
+        {
+            int parent = ( i - 1 ) / 2;
+            if ( heapH[parent] <= h )
+                break;
+            move( parent, i );
+            i = parent;
+        }
+        set( i, h, px, py, a, b );
+    }
+
+    private void pop()
+    {
+        int last = --heapSize;
+        if ( last == 0 )
+            return;
+
+        double h = heapH[last];
+        int i = 0;
+        while ( true )
+        {
+            int child = i * 2 + 1;
+            if ( child >= last )
+                break;
+            if ( child + 1 < last && heapH[child + 1] < heapH[child] )
+                child++;
+            if ( heapH[child] >= h )
+                break;
+            move( child, i );
+            i = child;
+        }
+        move( last, i );
+    }
+
+    private void move( int from, int to )
+    {
+        set( to, heapH[from], heapX[from], heapY[from], heapA[from], heapB[from] );
+    }
+
+    private void set( int i, double h, double px, double py, int a, int b )
+    {
+        heapH[i] = h;
+        heapX[i] = px;
+        heapY[i] = py;
+        heapA[i] = a;
+        heapB[i] = b;
+    }
+
+    /**
+     * @return the output, with every face built
+     */
+    @Override
+    public Output getOutput()
+    {
+        prepareOutput();
+        for (int e = 0; e < edges.length; e++)
+            if ( rep[e] == e )
+                materialize( e );
+        return output;
+    }
+
+    /**
+     * Builds (if it hasn't been already) just the face of the given input edge.
+     */
+    public Face getFace( Edge edge )
+    {
+        prepareOutput();
+        for (int e = 0; e < edges.length; e++)
+            if ( edges[e] == edge )
+                return materialize( find( e ) );
+        return null;
+    }
+
+    /**
+     * Registers every face and its defining segments with the output (cheap), and
+     * indexes the arcs by face.
+     */
+    private void prepareOutput()
+    {
+        if ( outputPrepared )
+            return;
+        outputPrepared = true;
+
+        // combine shared edges into single output faces, as Skeleton.setup
+        for (Edge e : allEdges.keySet())
+        {
+            List<Corner> corners = allEdges.get( e );
+            Corner first = corners.get( 0 );
+
+            output.newEdge( first.nextL, null, new LinkedHashSet<Feature>() );
+
+            for (int i = 1; i < corners.size(); i++)
+                output.merge( first, corners.get( i ) );
+        }
+
+        for (Corner c : input.eIterator())
+            output.newDefiningSegment( c );
+
+        for (Corner c : dropped)
+            output.merge( c.prevC, c );
+
+        snapArcEnds();
+
+        WavefrontArrays w = wave;
+        faceArcStart = new int[edges.length + 1];
+        for (int k = 0; k < w.cornerCount; k++)
+            if ( isArc( k ) )
+            {
+                faceArcStart[w.prevEdge[k] + 1]++;
+                if ( w.nextEdge[k] != w.prevEdge[k] )
+                    faceArcStart[w.nextEdge[k] + 1]++;
+            }
+
+        for (int e = 0; e < edges.length; e++)
+            faceArcStart[e + 1] += faceArcStart[e];
+
+        faceArcs = new int[faceArcStart[edges.length]];
+        int[] fill = Arrays.copyOf( faceArcStart, edges.length );
+        for (int k = 0; k < w.cornerCount; k++)
+            if ( isArc( k ) )
+            {
+                faceArcs[fill[w.prevEdge[k]]++] = k;
+                if ( w.nextEdge[k] != w.prevEdge[k] )
+                    faceArcs[fill[w.nextEdge[k]]++] = k;
+            }
+
+        materialized = new boolean[edges.length];
+    }
+
+    /**
+     * Several corners that meet at one point (eg. the centre of a square) may be killed by
+     * different events, whose collisions disagree a little. As the other engine merges
+     * events at about the same height and place (HeightCollision), event points that close
+     * together are moved onto the first one found, so faces share output edges exactly.
+     * The input corners don't move.
+     */
+    private void snapArcEnds()
+    {
+        WavefrontArrays w = wave;
+        double cell = HeightCollision.CO_SITED, rise = 0.00001;
+
+        // ends of arcs (k * 2 + 1 for the end of k's arc) at the first point found in each cell
+        MultiMap<Long, Integer> found = new MultiMap<Long, Integer>();
+
+        for (int i = 0; i < w.cornerCount * 2; i++)
+        {
+            int k = i / 2;
+            boolean end = i % 2 == 1;
+
+            if ( end ? w.live[k] : k < inputCorners )
+                continue;
+
+            double px = end ? w.endX[k] : w.x[k], py = end ? w.endY[k] : w.y[k], pz = end ? w.endZ[k] : w.z[k];
+            long cx = (long) Math.floor( px / cell ), cy = (long) Math.floor( py / cell );
+
+            snap:
+            for (long dx = -1; dx <= 1; dx++)
+                for (long dy = -1; dy <= 1; dy++)
+                    for (int j : found.get( cellKey( cx + dx, cy + dy ) ))
+                    {
+                        int o = j / 2;
+                        double ox = j % 2 == 1 ? w.endX[o] : w.x[o], oy = j % 2 == 1 ? w.endY[o] : w.y[o], oz = j % 2 == 1 ? w.endZ[o] : w.z[o];
+
+                        if ( Math.abs( oz - pz ) < rise && ( ox - px ) * ( ox - px ) + ( oy - py ) * ( oy - py ) < cell * cell )
+                        {
+                            if ( end )
+                            {
+                                w.endX[k] = ox;
+                                w.endY[k] = oy;
+                                w.endZ[k] = oz;
+                            }
+                            else
+                            {
+                                w.x[k] = ox;
+                                w.y[k] = oy;
+                                w.z[k] = oz;
+                            }
+                            continue snap;
+                        }
+                    }
+
+            found.put( cellKey( cx, cy ), i );
+        }
+    }
+
+    private static long cellKey( long x, long y )
+    {
+        return x * 0x9E3779B97F4A7C15L + y;
+    }
+
+    private boolean isArc( int k )
+    {
+        WavefrontArrays w = wave;
+        return !w.live[k] && ( w.x[k] != w.endX[k] || w.y[k] != w.endY[k] || w.z[k] != w.endZ[k] );
+    }
+
+    private Face materialize( int e )
+    {
+        Face face = output.faces.get( edges[e].start );
+        if ( materialized[e] )
+            return face;
+        materialized[e] = true;
+
+        WavefrontArrays w = wave;
+        for (int i = faceArcStart[e]; i < faceArcStart[e + 1]; i++)
+        {
+            int k = faceArcs[i];
+            output.addOutputSideTo(
+                    new Point3d( w.x[k], w.y[k], w.z[k] ),
+                    new Point3d( w.endX[k], w.endY[k], w.endZ[k] ),
+                    edges[e] );
+        }
+
+        output.calculate( face );
+        return face;
+    }
+}
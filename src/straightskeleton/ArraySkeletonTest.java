@@ -0,0 +1,159 @@
+package straightskeleton;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import javax.vecmath.Point3d;
+
+import org.junit.Test;
+
+import straightskeleton.Output.Face;
+import straightskeleton.ui.DirectionHeightEvent;
+import utils.Loop;
+import utils.LoopL;
+
+import junit.framework.Assert;
+
+public class ArraySkeletonTest
+{
+    /**
+     * On stars with a hole, the array backed skeleton must give the same faces as the
+     * general one.
+     */
+    @Test public void testMatchesGeneral()
+    {
+        for (int seed = 0; seed < 20; seed++)
+        {
+            LoopL<Edge> input = starWithHole( seed, 200, Math.PI / 4 );
+
+            // the array output first (it's built lazily), as the general skeleton changes the input's corners
+            Skeleton array = new ArraySkeleton( input, true );
+            array.skeleton();
+            Output arrayOut = array.getOutput();
+
+            Skeleton general = new Skeleton( input, true );
+            general.skeleton();
+
+            List<Edge> bad = compare( input, general.getOutput(), arrayOut, 0.01 );
+            Assert.assertTrue( "seed " + seed + " differs on " + bad.size() + " faces", bad.isEmpty() );
+        }
+    }
+
+    @Test public void testRejectsChangingAngles()
+    {
+        Machine machine = new Machine( Math.PI / 4 );
+        machine.addHeightEvent( new DirectionHeightEvent( machine, 5, Math.PI / 3 ) );
+
+        LoopL<Edge> input = starWithHole( 0, 20, Math.PI / 4 );
+        Assert.assertTrue( ArraySkeleton.supports( input ) );
+
+        for (Edge e : input.eIterator())
+            e.machine = machine;
+        Assert.assertFalse( ArraySkeleton.supports( input ) );
+
+        try
+        {
+            new ArraySkeleton( input, true );
+            Assert.fail();
+        }
+        catch ( IllegalArgumentException e )
+        {
+            // expected
+        }
+    }
+
+    @Test public void testRejectsOutwardsAngles()
+    {
+        Assert.assertFalse( ArraySkeleton.supports( starWithHole( 0, 20, -Math.PI / 4 ) ) );
+    }
+
+    /**
+     * Two faces are the same if every point of each is within tol of a point of the
+     * other, and they share the same number of output edges with other faces.
+     *
+     * @return the input edges whose faces differ (or are missing from one output)
+     */
+    private static List<Edge> compare( LoopL<Edge> input, Output a, Output b, double tol )
+    {
+        List<Edge> bad = new ArrayList<Edge>();
+        for (Edge e : input.eIterator())
+        {
+            Face fa = a.faces.get( e.start ), fb = b.faces.get( e.start );
+
+            if ( fa == null || fb == null || fa.points == null || fb.points == null )
+            {
+                if ( !( ( fa == null || fa.points == null ) && ( fb == null || fb.points == null ) ) )
+                    bad.add( e );
+            }
+            else if ( !covers( fa.points, fb.points, tol ) || !covers( fb.points, fa.points, tol ) ||
+                    neighbours( fa ) != neighbours( fb ) )
+                bad.add( e );
+        }
+        return bad;
+    }
+
+    /**
+     * Is every point in a near a point in b?
+     */
+    private static boolean covers( LoopL<Point3d> a, LoopL<Point3d> b, double tol )
+    {
+        double tol2 = tol * tol;
+        points:
+        for (Point3d p : a.eIterator())
+        {
+            for (Point3d q : b.eIterator())
+                if ( p.distanceSquared( q ) <= tol2 )
+                    continue points;
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * @return the number of output edges the face shares with another face
+     */
+    private static int neighbours( Face face )
+    {
+        int count = 0;
+        if ( face.edges != null )
+            for (Output.SharedEdge se : face.edges.eIterator())
+                if ( se.left != null && se.right != null )
+                    count++;
+        return count;
+    }
+
+    /**
+     * A counter clockwise star of n points with a clockwise hole of 7.
+     */
+    private static LoopL<Edge> starWithHole( long seed, int n, double angle )
+    {
+        Random rand = new Random( seed );
+        Machine machine = new Machine( angle );
+        LoopL<Edge> input = new LoopL<Edge>();
+
+        input.add( loop( machine, rand, n, 50, 50 ) );
+        input.add( loop( machine, rand, 7, -10, 10 ) );
+
+        return input;
+    }
+
+    private static Loop<Edge> loop( Machine machine, Random rand, int n, double radius, double jitter )
+    {
+        List<Corner> corners = new ArrayList<Corner>();
+        for (int i = 0; i < n; i++)
+        {
+            double angle = Math.signum( radius ) * Math.PI * 2 * i / n,
+                   r = Math.abs( radius ) + rand.nextDouble() * jitter;
+            corners.add( new Corner( r * Math.cos( angle ), r * Math.sin( angle ) ) );
+        }
+
+        Loop<Edge> loop = new Loop<Edge>();
+        for (int i = 0; i < corners.size(); i++)
+        {
+            Edge e = new Edge( corners.get( i ), corners.get( ( i + 1 ) % corners.size() ) );
+            e.machine = machine;
+            loop.append( e );
+        }
+        return loop;
+    }
+}
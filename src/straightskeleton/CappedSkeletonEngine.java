@@ -0,0 +1,34 @@
+package straightskeleton;
+
+import utils.CancelToken;
+import utils.LoopL;
+
+/**
+ * The general engine, stopped at a given height. No events above the cap are
+ * processed: the faces still rising there are cut off with a flat top at the cap
+ * (their top edges are in Face.topSE, and have no face on the other side).
+ */
+public class CappedSkeletonEngine implements SkeletonEngine
+{
+    double cap;
+
+    public CappedSkeletonEngine( double cap )
+    {
+        this.cap = cap;
+    }
+
+    public Output skeleton( LoopL<Edge> input )
+    {
+        return skeleton( input, null );
+    }
+
+    public Output skeleton( LoopL<Edge> input, CancelToken cancel )
+    {
+        Skeleton skel = new Skeleton();
+        skel.setCancel( cancel );
+        skel.setupForEdges( input );
+        skel.addCap( cap );
+        skel.skeleton();
+        return skel.getOutput();
+    }
+}
@@ -321,7 +321,7 @@ public class CoSitedCollision
 
                     // face no longer referenced, remove from list of live edges 
                     if ( middle.currentCorners.isEmpty() )
-                        skel.liveEdges.remove( middle );
+                        skel.retireEdge( middle );
                 }
             }
 
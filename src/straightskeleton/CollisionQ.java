@@ -8,11 +8,23 @@
 package straightskeleton;
 
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.PriorityQueue;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
 import javax.vecmath.Point3d;
-import javax.vecmath.Tuple3d;
 import straightskeleton.debug.DebugDevice;
+import utils.CancelToken;
+import utils.LinearForm3D;
 
 /**
  *
@@ -29,9 +41,33 @@ public class CollisionQ
      */
     private PriorityQueue<HeightEvent> miscEvents;
 
+    // face event queue size at which stale events are purged
+    private final static int MIN_COMPACT = 1024;
+    private int compactAt = MIN_COMPACT;
+
 
     Skeleton skel;
 
+    // number of corner-edge collisions tested, for profiling
+    long collisionTests = 0;
+
+    /**
+     * Off to collide convex corners with every candidate edge, as reflex ones are. The
+     * same events are found (slowly).
+     */
+    public static boolean filterConvex = true;
+
+    // spatial index of liveEdges, built lazily after face events are cleared
+    private EdgeGrid edgeGrid;
+
+    // finds the collisions of corners added one at a time
+    private Seeder serial = new Seeder();
+
+    // addCorners splits its corners between threads if each gets at least this many
+    final static int MIN_PARTITION = 128;
+    private static ExecutorService seedExecutor;
+    private static boolean seedExecutorSet = false;
+
     /**
      * @param corners the input set of corners
      * @param liveEdges the (continuously updated) set of edges that still feature
@@ -40,45 +76,35 @@ public class CollisionQ
     public CollisionQ( Skeleton skel )
     {
         this.skel = skel;
-        faceEvents = new PriorityQueue<EdgeCollision> (Math.max (3, skel.liveCorners.size()), HeightEvent.heightComparator);
+        faceEvents = new PriorityQueue<EdgeCollision> (Math.max (3, skel.liveCorners.size()), EdgeCollision.heightComparator);
         miscEvents = new PriorityQueue<HeightEvent> (Math.max( 3, skel.liveCorners.size() ), HeightEvent.heightComparator);
     }
 
     private HeightEvent nextEvent()
     {
-        EdgeCollision ec;
-        
-        for (;;)
-        {
-            ec = faceEvents.poll();
-            if (ec == null)
-                break;
-            // valid if we haven't seen it, and it's height is "greater" than the current skeleton height
-            if ( !skel.seen.contains( ec ) && ec.loc.z - skel.height > -0.001 )
-                break;
-        }
-        
+        EdgeCollision ec = peekFaceEvent();
         HeightEvent he = miscEvents.peek();
 
-        if ( ec == null )
-        {
+        if ( ec == null || ( he != null && he.getHeight() <= ec.getHeight() ) )
             return miscEvents.poll(); // might be null!
-        }
-        if ( he == null )
-        {
-            skel.seen.add( ec );
-            return ec; // might be null!
-        }
 
-        if ( he.getHeight() <= ec.getHeight() )
-        {
-            faceEvents.add( ec );
-            return miscEvents.poll(); // return he
-        }
-        else
+        faceEvents.poll();
+        markProcessed( ec );
+        return ec;
+    }
+
+    /**
+     * Discards invalid collisions from the front of the queue.
+     */
+    private EdgeCollision peekFaceEvent()
+    {
+        for (;;)
         {
-            skel.seen.add( ec );
-            return ec; // return ec
+            EdgeCollision ec = faceEvents.peek();
+            // valid if its edges are live, we haven't processed it, and it's height is "greater" than the current skeleton height
+            if ( ec == null || ( isValid( ec ) && ec.loc.z - skel.height > -0.001 ) )
+                return ec;
+            faceEvents.poll();
         }
     }
 
@@ -107,21 +133,216 @@ public class CollisionQ
                 {
                     faceEvents.poll(); //same as higher
 
-                    if (skel.seen.contains( higher ))
+                    if ( !isValid( higher ) )
                         continue;
                     
                     height = higher.getHeight();
-                    skel.seen.add( higher );
+                    markProcessed( higher );
                     coHeighted.add( higher );
                 }
                 else break;
             }
 
+            if ( filterConvex )
+                collideConvexAt( coHeighted, height );
+
             return currentCoHeighted = new HeightCollision ( coHeighted );
         }
         else return next;
     }
 
+    /**
+     * Convex corners are only collided with their neighbours' far edges (see Seeder.collide). But
+     * where several events meet (square holes, points on a lattice), a convex corner can touch
+     * another edge too, and that collision is grouped with the rest. So the convex corners on the
+     * edges colliding at this height are collided with those edges, and any new collision at
+     * this height joins the others.
+     *
+     * @param coHeighted the collisions at this height, lowest first
+     * @param height the highest of them
+     */
+    private void collideConvexAt( List<EdgeCollision> coHeighted, double height )
+    {
+        double lowest = coHeighted.get( 0 ).getHeight();
+
+        Set<Edge> edges = new LinkedHashSet<Edge>();
+        for (EdgeCollision ec : coHeighted)
+        {
+            edges.add( ec.a );
+            edges.add( ec.b );
+            edges.add( ec.c );
+        }
+
+        // only corners that reach this height near one of the collisions
+        LinearForm3D ceiling = new LinearForm3D( 0, 0, 1, -height );
+        Point3d at = new Point3d();
+
+        Set<Corner> convex = new LinkedHashSet<Corner>();
+        for (Edge e : edges)
+            for (Corner c : e.currentCorners)
+                if ( !c.reflex && !convex.contains( c ) && skel.liveCorners.contains( c ) &&
+                        isNear( c, ceiling, at, coHeighted ) )
+                    convex.add( c );
+
+        for (Corner c : convex)
+            for (Edge e : edges)
+                if ( !isNeighbourEdge( c, e ) )
+                    serial.cornerEdgeCollision( c, e );
+
+        collisionTests += serial.tests;
+        serial.tests = 0;
+
+        for (EdgeCollision ec : serial.found)
+            if ( ec.getHeight() - lowest > -0.00001 && ec.getHeight() - height < 0.00001 && isValid( ec ) )
+            {
+                markProcessed( ec );
+
+                // in height order, as if it had been queued: a site is at its first collision
+                int i = coHeighted.size();
+                while ( i > 0 && coHeighted.get( i - 1 ).getHeight() >= ec.getHeight() )
+                    i--;
+                coHeighted.add( i, ec );
+            }
+        serial.found.clear();
+    }
+
+    // how close a convex corner has to come to a collision to be collided at its site
+    private final static double NEAR = HeightCollision.CO_SITED * 10;
+
+    /**
+     * Is the corner, where it meets the ceiling, near one of the collisions? If we can't tell,
+     * it is.
+     */
+    private static boolean isNear( Corner c, LinearForm3D ceiling, Point3d at, List<EdgeCollision> coHeighted )
+    {
+        if ( c.prevL.linearFormHasNaN || c.nextL.linearFormHasNaN )
+            return true;
+
+        Point3d loc;
+        try
+        {
+            loc = ceiling.collide( c.prevL.linearForm, c.nextL.linearForm, at );
+        }
+        catch ( Throwable f )
+        {
+            return true;
+        }
+
+        if ( loc == null )
+            return true;
+
+        for (EdgeCollision ec : coHeighted)
+            if ( loc.distanceSquared( ec.loc ) < NEAR * NEAR )
+                return true;
+        return false;
+    }
+
+    /**
+     * @return true if all the collision's edges are still live, and we haven't passed the
+     * same triplet of edges out before.
+     */
+    private boolean isValid( EdgeCollision ec )
+    {
+        return !ec.isStale() && !isProcessed( ec );
+    }
+
+    /**
+     * We store the triplets of faces we've already passed out on each of the three edges,
+     * to stop repeats (insensitive to face order). Only the shortest list is searched.
+     */
+    private boolean isProcessed( EdgeCollision ec )
+    {
+        List<EdgeCollision> a = ec.a.processed, b = ec.b.processed, c = ec.c.processed;
+
+        if ( a == null || b == null || c == null )
+            return false;
+
+        List<EdgeCollision> shortest = a.size() <= b.size() ? a : b;
+        if ( c.size() < shortest.size() )
+            shortest = c;
+
+        Iterator<EdgeCollision> it = shortest.iterator();
+        while ( it.hasNext() )
+        {
+            EdgeCollision done = it.next();
+            if ( done.isStale() )
+                it.remove(); // one of its edges has gone, so it can't be found again
+            else if ( done.equals( ec ) )
+                return true;
+        }
+        return false;
+    }
+
+    /**
+     * As isProcessed, but doesn't prune stale collisions from the lists. So it can be
+     * called from the seeding threads while nothing is being processed.
+     */
+    private static boolean wasProcessed( Edge a, Edge b, Edge c )
+    {
+        List<EdgeCollision> shortest = a.processed, other;
+        if ( shortest == null || ( other = b.processed ) == null )
+            return false;
+        if ( other.size() < shortest.size() )
+            shortest = other;
+        if ( ( other = c.processed ) == null )
+            return false;
+        if ( other.size() < shortest.size() )
+            shortest = other;
+
+        for (int i = 0; i < shortest.size(); i++)
+        {
+            EdgeCollision done = shortest.get( i );
+            if ( !done.isStale() && done.isBetween( a, b, c ) )
+                return true;
+        }
+        return false;
+    }
+
+    // the cosine of the angle (0.0001) below which two edges are treated as parallel
+    private final static double PARALLEL = Math.cos( 0.0001 );
+    // the cosine of the angle (0.01) between edge directions, below which a horizontal bisector isn't a peak
+    private final static double PEAK = Math.cos( 0.01 );
+
+    /**
+     * Same uphill (unit vectors), and direction along the other's uphill.
+     */
+    private static boolean isParallel( Edge edge, Edge other )
+    {
+        return edge.uphill.dot( other.uphill ) > PARALLEL && edge.unitDirection.dot( other.uphill ) > PARALLEL;
+    }
+
+    private void markProcessed( EdgeCollision ec )
+    {
+        markProcessed( ec.a, ec );
+        markProcessed( ec.b, ec );
+        markProcessed( ec.c, ec );
+    }
+
+    private static void markProcessed( Edge e, EdgeCollision ec )
+    {
+        if ( e.processed == null )
+            e.processed = new ArrayList<EdgeCollision>( 4 );
+        e.processed.add( ec );
+    }
+
+    /**
+     * Stale collisions are only discarded when they reach the front of the queue. Once
+     * the queue has doubled in size since we last looked, throw them all out.
+     */
+    private void compactFaceEvents()
+    {
+        if ( faceEvents.size() < compactAt )
+            return;
+
+        PriorityQueue<EdgeCollision> valid = new PriorityQueue<EdgeCollision>( Math.max( 3, faceEvents.size() ), EdgeCollision.heightComparator );
+        for (EdgeCollision ec : faceEvents)
+            if ( !ec.isStale() )
+                valid.add( ec );
+
+        faceEvents = valid;
+        compactAt = Math.max( MIN_COMPACT, faceEvents.size() * 2 );
+    }
+
     public void add(HeightEvent he)
     {
         if (he instanceof EdgeCollision)
@@ -133,13 +354,25 @@ public class CollisionQ
     /**
      * Collide all existing corners against the specified edge
      * @param edge
+     * @param except corners that have already been collided against all edges
      */
-//    public void checkEdge (Edge edge)
-//    {
-//        for (Corner c : skel.liveCorners)
-//            if (c != edge.start && c != edge.end)
-//                cornerEdgeCollision( c, edge );
-//    }
+    public void checkEdge (Edge edge, Set<Corner> except)
+    {
+        for (Corner c : skel.liveCorners)
+            if (!except.contains( c ) && ( !filterConvex || c.reflex || isNeighbourEdge( c, edge ) ) )
+                serial.cornerEdgeCollision( c, edge );
+
+        merge( serial, null );
+    }
+
+    /**
+     * @return true if the edge is the far edge of one of the corner's neighbours (the only
+     * edges a convex corner has to be collided with, see collideConvexAt).
+     */
+    private static boolean isNeighbourEdge( Corner c, Edge edge )
+    {
+        return c.prevC == null || c.nextC == null || edge == c.prevC.prevL || edge == c.nextC.nextL;
+    }
 
     /**
      * Collide the new edge (toAdd.prev, toAdd.next) against
@@ -148,12 +381,176 @@ public class CollisionQ
      * @param toAdd
      */
     public void addCorner( Corner toAdd, HeightCollision postProcess )
+    {
+        skel.touch( toAdd );
+
+        if ( dissolve( toAdd ) )
+            return;
+
+        serial.collide( toAdd );
+        merge( serial, postProcess );
+    }
+
+    /**
+     * Adds each of the given live corners, as addCorner.
+     *
+     * Corners that change the wavefront (parallel edges, loops of two) are dealt with
+     * first, in order. The rest only read the wavefront until they queue their events,
+     * so with enough of them they're partitioned between threads, each collecting its
+     * events (and horizontal bisectors) in its own list. The lists are merged into the
+     * queue in the order a single thread would have added them.
+     */
+    public void addCorners( Collection<Corner> corners, HeightCollision postProcess )
+    {
+        List<Corner> todo = new ArrayList<Corner>();
+        for (Corner c : corners)
+        {
+            if ( !skel.liveCorners.contains( c ) )
+                continue;
+
+            skel.touch( c );
+
+            if ( !dissolve( c ) )
+                todo.add( c );
+        }
+
+        // dissolving later corners may have removed earlier ones
+        Iterator<Corner> it = todo.iterator();
+        while ( it.hasNext() )
+            if ( !skel.liveCorners.contains( it.next() ) )
+                it.remove();
+
+        int parts = Math.min( Runtime.getRuntime().availableProcessors(), todo.size() / MIN_PARTITION );
+        ExecutorService executor = parts < 2 ? null : getSeedExecutor();
+
+        if ( executor == null )
+        {
+            serial.corners = todo;
+            serial.call();
+            serial.corners = null;
+            merge( serial, postProcess );
+            return;
+        }
+
+        // built here, the grid is only read by the seeders
+        if ( edgeGrid == null )
+            edgeGrid = new EdgeGrid( skel );
+
+        List<FutureTask<Seeder>> tasks = new ArrayList<FutureTask<Seeder>>();
+        for (int i = 0; i < parts; i++)
+        {
+            Seeder seeder = new Seeder();
+            seeder.corners = todo.subList( i * todo.size() / parts, ( i + 1 ) * todo.size() / parts );
+            FutureTask<Seeder> task = new FutureTask<Seeder>( seeder );
+            tasks.add( task );
+            if ( i > 0 )
+                executor.execute( task );
+        }
+
+        boolean interrupted = false;
+        try
+        {
+            for (FutureTask<Seeder> task : tasks)
+            {
+                // does nothing if a worker has started it. Otherwise, as the executor may be busy (eg.
+                // running this skeleton), this thread does it.
+                task.run();
+
+                for (;;)
+                    try
+                    {
+                        merge( task.get(), postProcess );
+                        break;
+                    }
+                    catch ( InterruptedException e )
+                    {
+                        interrupted = true;
+                    }
+            }
+        }
+        catch ( ExecutionException e )
+        {
+            for (FutureTask<Seeder> task : tasks)
+                task.cancel( false );
+
+            if ( e.getCause() instanceof RuntimeException )
+                throw (RuntimeException) e.getCause();
+            if ( e.getCause() instanceof Error )
+                throw (Error) e.getCause();
+            throw new RuntimeException( e.getCause() );
+        }
+        finally
+        {
+            if ( interrupted )
+                Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * The executor addCorners shares its work with. Unless set, a pool with a (daemon)
+     * thread per processor, created when first asked for.
+     */
+    public static synchronized ExecutorService getSeedExecutor()
+    {
+        if ( seedExecutor == null && !seedExecutorSet )
+        {
+            seedExecutor = Executors.newFixedThreadPool( Runtime.getRuntime().availableProcessors(), new ThreadFactory()
+            {
+                private final AtomicInteger count = new AtomicInteger();
+
+                public Thread newThread( Runnable r )
+                {
+                    Thread t = new Thread( r, "collision-seeder-" + count.incrementAndGet() );
+                    t.setDaemon( true );
+                    return t;
+                }
+            } );
+            seedExecutorSet = true;
+        }
+        return seedExecutor;
+    }
+
+    /**
+     * @param executor null to always find collisions on the calling thread
+     */
+    public static synchronized void setSeedExecutor( ExecutorService executor )
+    {
+        seedExecutor = executor;
+        seedExecutorSet = true;
+    }
+
+    /**
+     * Queues the collisions the seeder found, and registers its horizontal bisectors,
+     * in the order it found them.
+     */
+    private void merge( Seeder seeder, HeightCollision postProcess )
+    {
+        collisionTests += seeder.tests;
+        seeder.tests = 0;
+
+        for (EdgeCollision ec : seeder.found)
+        {
+            faceEvents.offer( ec );
+            compactFaceEvents();
+        }
+        seeder.found.clear();
+
+        for (Corner c : seeder.horiz)
+            postProcess.newHoriz( c );
+        seeder.horiz.clear();
+    }
+
+    /**
+     * Removes a corner between two parallel edges, and a loop of two.
+     * @return true if the corner was dealt with (and so has no collisions)
+     */
+    private boolean dissolve( Corner toAdd )
     {
         // check these two edges don't share the same face
         if ( toAdd.prevL.sameDirectedLine( toAdd.nextL ) )
         {
             removeCorner( toAdd );
-            return;
+            return true;
         }
         
         // loop of two - dissolves to a ridge
@@ -167,71 +564,126 @@ public class CollisionQ
             toAdd.prevL.currentCorners.remove( toAdd.nextC );
 
             if ( toAdd.nextL.currentCorners.isEmpty() )
-                skel.liveEdges.remove( toAdd.nextL );
+                skel.retireEdge( toAdd.nextL );
 
             if ( toAdd.prevL.currentCorners.isEmpty() )
-                skel.liveEdges.remove( toAdd.prevL );
+                skel.retireEdge( toAdd.prevL );
 
             skel.liveCorners.remove( toAdd );
             skel.liveCorners.remove( toAdd.nextC );
-            return;
+            return true;
         }
 
-        // Horizontal bisectors are rounded up and evaluated before leaving the current height event
-        if ( toAdd.prevL.isCollisionNearHoriz( toAdd.nextL ) )
-        {
-            // if not a peak, add as a unsolved horizontal bisector
-            if (toAdd.nextL.direction().angle( toAdd.prevL.direction() ) < 0.01 )
-                postProcess.newHoriz( toAdd );
-            // if just a peak, assume the loops-of-two-rule will finish it awf
-            return;
-        }
+        return false;
+    }
 
-        for (Edge e : skel.liveEdges)
-            cornerEdgeCollision( toAdd, e );
+    /**
+     * Called between events, when the corner loops are consistent, to tighten the
+     * edge grid once many of the edges it indexes have gone.
+     */
+    public void refreshEdgeGrid()
+    {
+        if ( edgeGrid != null && skel.liveEdges.size() < edgeGrid.size() / 2 )
+            edgeGrid = new EdgeGrid( skel );
     }
 
-    private void cornerEdgeCollision( Corner corner, Edge edge )
+    /**
+     * Finds the collisions of corners, without changing the wavefront or the queue (see merge).
+     */
+    private class Seeder implements Callable<Seeder>
     {
+        List<Corner> corners;
+
+        List<EdgeCollision> found = new ArrayList<EdgeCollision>();
+        List<Corner> horiz = new ArrayList<Corner>();
+        long tests = 0;
+
+        // scratch result for the three plane collision in cornerEdgeCollision
+        private Point3d collision = new Point3d();
+        private EdgeGrid.Scratch candidates = new EdgeGrid.Scratch();
+
+        public Seeder call()
+        {
+            for (Corner c : corners)
+            {
+                CancelToken.check( skel.cancel );
+                collide( c );
+            }
+            return this;
+        }
+
+        /**
+         * Collide the new edge (toAdd.prev, toAdd.next) against all other edges.
+         */
+        void collide( Corner toAdd )
+        {
+            // Horizontal bisectors are rounded up and evaluated before leaving the current height event
+            if ( toAdd.prevL.isCollisionNearHoriz( toAdd.nextL ) )
+            {
+                // if not a peak, add as a unsolved horizontal bisector
+                if (toAdd.nextL.unitDirection.dot( toAdd.prevL.unitDirection ) > PEAK )
+                    horiz.add( toAdd );
+                // if just a peak, assume the loops-of-two-rule will finish it awf
+                return;
+            }
+
+            // convex corners only have edge events with their neighbours
+            if ( filterConvex && !toAdd.updateReflex() && toAdd.prevC != null && toAdd.nextC != null )
+            {
+                cornerEdgeCollision( toAdd, toAdd.prevC.prevL );
+                if ( toAdd.nextC.nextL != toAdd.prevC.prevL )
+                    cornerEdgeCollision( toAdd, toAdd.nextC.nextL );
+                return;
+            }
+
+            if ( edgeGrid == null )
+                edgeGrid = new EdgeGrid( skel );
+
+            for (Edge e : edgeGrid.getCandidates( toAdd, candidates ))
+                cornerEdgeCollision( toAdd, e );
+        }
+
+        /**
+         * Cheap rejects come first, the collision is only allocated once it's known to be new.
+         */
+        void cornerEdgeCollision( Corner corner, Edge edge )
+        {
+            tests++;
+
             // check for the uphill vector of both edges being too similar (parallel edges)
             // also rejects e == corner.nextL or corner.prevL
             // updated to take into account vertical edges - will always have same uphill! - (so we check edge direction too)
-            if (
-                    (edge.uphill.angle( corner.prevL.uphill ) < 0.0001 && edge.direction().angle(  corner.prevL.uphill) < 0.0001 ) ||
-                    (edge.uphill.angle( corner.nextL.uphill ) < 0.0001 && edge.direction().angle(  corner.nextL.uphill) < 0.0001 ))
+            if ( isParallel( edge, corner.prevL ) || isParallel( edge, corner.nextL ) )
                 return;
 
+            // sometimes locks up here if edge.linear form has NaN components.
+            if ( corner.prevL.linearFormHasNaN || corner.nextL.linearFormHasNaN || edge.linearFormHasNaN )
+                return;
 
-            Tuple3d res = null;
+            Point3d res;
             try
             {
-                // sometimes locks up here if edge.linear form has NaN components.
-                if ( corner.prevL.linearForm.hasNaN() || corner.nextL.linearForm.hasNaN() || edge.linearForm.hasNaN())
-                    throw new Error();
-                res =edge.linearForm.collide( corner.prevL.linearForm, corner.nextL.linearForm );
+                res = edge.linearForm.collide( corner.prevL.linearForm, corner.nextL.linearForm, collision );
             }
             catch ( Throwable f )
             {
                 //trying to collide parallel-ish faces, don't bother
-//                System.err.println( "didn't like colliding " + edge + " and " + corner.prevL + " and " + corner.nextL );
                 return;
             }
 
-            if ( res != null )
-            {
-                // cheap reject: if collision is equal or below (not the correct place to check) the corner, don't bother with it
-                if ( res.z < corner.z || res.z < edge.start.z )
-                    return;
-
-                EdgeCollision ec =
-                        new EdgeCollision( new Point3d(res),
-                        corner.prevL,
-                        corner.nextL,
-                        edge);
-
-                if (! skel.seen.contains( ec ))
-                    faceEvents.offer( ec );
-            }
+            // cheap reject: if collision is equal or below (not the correct place to check) the corner, don't bother with it
+            if ( res == null || res.z < corner.z || res.z < edge.start.z )
+                return;
+
+            // outside the grid's bounds, or above its maximum height: the wavefront has gone
+            if ( edgeGrid != null && edgeGrid.rejects( res ) )
+                return;
+
+            if ( wasProcessed( corner.prevL, corner.nextL, edge ) )
+                return;
+
+            found.add( new EdgeCollision( new Point3d( res ), corner.prevL, corner.nextL, edge ) );
+        }
     }
 
     boolean holdRemoves = false;
@@ -278,9 +730,14 @@ public class CollisionQ
         // update main corner list
         skel.liveCorners.remove( toAdd );
 
-        //brute force search for all references to old edge (if this was on a per face basis it'd be much nicer)
-        for ( Corner lc : skel.liveCorners )
+        // all references to the old edge are in its list of current corners
+        for ( Corner lc : toAdd.nextL.currentCorners )
         {
+            if ( lc == toAdd )
+                continue;
+
+            skel.touch( lc );
+
             if (lc.nextL == toAdd.nextL)
             {
                 lc.nextL = toAdd.prevL;
@@ -294,26 +751,27 @@ public class CollisionQ
         if (toAdd.prevL != toAdd.nextL)
         {
             // update live edge list
-            skel.liveEdges.remove(toAdd.nextL);
+            skel.retireEdge( toAdd.nextL );
 
             // update output edge list (the two input edges give one output face)
 //            skel.inputEdges.remove(toAdd.nextL);
 
             // update edges's live corners
             for (Corner c : toAdd.nextL.currentCorners)
-                if (toAdd.prevL.currentCorners.add(c)); // also adds toAdd.nextC
+                if ( c != toAdd )
+                    toAdd.prevL.currentCorners.add( c ); // also adds toAdd.nextC
             // merge output corner lists
 
             // add to the results map likewise
             skel.output.merge ( toAdd.prevC, toAdd ); //toAdd.prevL.addOutputSidesFrom (toAdd.nextL);
 
-            // all collisions need recalculation. This situation could be avoided if collisions occur strictly with infinite faces.
-            // recurse through all consecutive colinear faces...?
-            skel.refindAllFaceEventsLater();
+            // collisions involving the merged edge need recalculation. This situation could be avoided if collisions occur strictly with infinite faces.
+            skel.refindFaceEventsLater( toAdd.prevL );
         }
 
-        // update edges's live corners (might have copied this over from nextL)
+        // toAdd has gone, so mustn't be left in either edge's live corners
         toAdd.prevL.currentCorners.remove( toAdd );
+        toAdd.nextL.currentCorners.remove( toAdd );
 
 
         // todo: we've merged two machines! (pick an arbitrary one?)
@@ -330,6 +788,9 @@ public class CollisionQ
     public void clearFaceEvents()
     {
         faceEvents.clear();
+        compactAt = MIN_COMPACT;
+        // edges may have been added or changed angle
+        edgeGrid = null;
     }
 
     public void clearOtherEvents()
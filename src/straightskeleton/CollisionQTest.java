@@ -0,0 +1,169 @@
+package straightskeleton;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import javax.vecmath.Point3d;
+
+import org.junit.After;
+import org.junit.Test;
+
+import utils.Loop;
+import utils.LoopL;
+
+import junit.framework.Assert;
+
+public class CollisionQTest
+{
+    @After public void restore()
+    {
+        CollisionQ.filterConvex = true;
+    }
+
+    /**
+     * Square holes meet each other's corners at the same points. There convex corners
+     * touch edges that aren't their neighbours', and those collisions must still be
+     * grouped with the others (seed 22 loses a sliver of a face if they aren't).
+     */
+    @Test public void testSquareHolesMatchFullSearch()
+    {
+        for (int seed = 20; seed < 28; seed++)
+        {
+            CollisionQ.filterConvex = true;
+            List<String> filtered = faces( squareHoles( seed, 6 ) );
+
+            CollisionQ.filterConvex = false;
+            List<String> all = faces( squareHoles( seed, 6 ) );
+
+            Assert.assertEquals( "seed " + seed, all, filtered );
+        }
+    }
+
+    /**
+     * Points on a lattice give many co-sited events too.
+     */
+    @Test public void testLatticeMatchesFullSearch()
+    {
+        for (int seed = 0; seed < 10; seed++)
+        {
+            CollisionQ.filterConvex = true;
+            List<String> filtered = faces( latticeStar( seed, 60 ) );
+
+            CollisionQ.filterConvex = false;
+            List<String> all = faces( latticeStar( seed, 60 ) );
+
+            Assert.assertEquals( "seed " + seed, all, filtered );
+        }
+    }
+
+    /**
+     * Most corners of a star are convex, so most of the corner-edge tests go.
+     */
+    @Test public void testConvexCornersTestFewerEdges()
+    {
+        CollisionQ.filterConvex = true;
+        Skeleton filtered = new Skeleton( latticeStar( 0, 200 ), true );
+        filtered.skeleton();
+
+        CollisionQ.filterConvex = false;
+        Skeleton all = new Skeleton( latticeStar( 0, 200 ), true );
+        all.skeleton();
+
+        Assert.assertTrue( filtered.qu.collisionTests * 2 < all.qu.collisionTests );
+    }
+
+    /**
+     * The points of each face to a thousandth (co-sited collisions may be merged at a point a
+     * rounding error away), sorted (the faces of two runs are keyed by different corners).
+     */
+    private static List<String> faces( LoopL<Edge> input )
+    {
+        Skeleton skel = new Skeleton( input, true );
+        skel.skeleton();
+
+        List<String> out = new ArrayList<String>();
+        for (Output.Face face : skel.output.faces.values())
+        {
+            List<String> points = new ArrayList<String>();
+            if ( face.points != null )
+                for (Point3d p : face.points.eIterator())
+                    points.add( String.format( "%.3f %.3f %.3f", p.x, p.y, p.z ).replace( "-0.000", "0.000" ) );
+            Collections.sort( points );
+            out.add( points.toString() );
+        }
+        Collections.sort( out );
+        return out;
+    }
+
+    /**
+     * A counter clockwise square of n by n cells, each with a clockwise square hole of
+     * random size and position.
+     */
+    private static LoopL<Edge> squareHoles( long seed, int n )
+    {
+        Random rand = new Random( seed );
+        Machine machine = new Machine( Math.PI / 4 );
+        LoopL<Edge> input = new LoopL<Edge>();
+
+        double size = 100;
+        input.add( loop( machine, 0, 0, n * size, 0, n * size, n * size, 0, n * size ) );
+
+        for (int i = 0; i < n; i++)
+            for (int j = 0; j < n; j++)
+            {
+                double s = 20 + rand.nextDouble() * 50,
+                       x = i * size + 5 + rand.nextDouble() * ( 90 - s ),
+                       y = j * size + 5 + rand.nextDouble() * ( 90 - s );
+                input.add( loop( machine, x, y, x, y + s, x + s, y + s, x + s, y ) );
+            }
+
+        return input;
+    }
+
+    /**
+     * A counter clockwise star of n points, rounded to whole numbers.
+     */
+    private static LoopL<Edge> latticeStar( long seed, int n )
+    {
+        Random rand = new Random( seed );
+        List<Double> xy = new ArrayList<Double>();
+        for (int i = 0; i < n; i++)
+        {
+            double angle = Math.PI * 2 * i / n, r = 50 + rand.nextDouble() * 50,
+                   x = Math.round( r * Math.cos( angle ) ), y = Math.round( r * Math.sin( angle ) );
+
+            // rounding may put neighbours on the same point
+            if ( !xy.isEmpty() && xy.get( xy.size() - 2 ) == x && xy.get( xy.size() - 1 ) == y )
+                continue;
+            xy.add( x );
+            xy.add( y );
+        }
+        if ( xy.get( 0 ).equals( xy.get( xy.size() - 2 ) ) && xy.get( 1 ).equals( xy.get( xy.size() - 1 ) ) )
+            xy = xy.subList( 0, xy.size() - 2 );
+
+        double[] points = new double[xy.size()];
+        for (int i = 0; i < points.length; i++)
+            points[i] = xy.get( i );
+
+        LoopL<Edge> input = new LoopL<Edge>();
+        input.add( loop( new Machine( Math.PI / 4 ), points ) );
+        return input;
+    }
+
+    private static Loop<Edge> loop( Machine machine, double... xy )
+    {
+        List<Corner> corners = new ArrayList<Corner>();
+        for (int i = 0; i < xy.length; i += 2)
+            corners.add( new Corner( xy[i], xy[i + 1] ) );
+
+        Loop<Edge> loop = new Loop<Edge>();
+        for (int i = 0; i < corners.size(); i++)
+        {
+            Edge e = new Edge( corners.get( i ), corners.get( ( i + 1 ) % corners.size() ) );
+            e.machine = machine;
+            loop.append( e );
+        }
+        return loop;
+    }
+}
@@ -10,6 +10,7 @@ import java.util.Iterator;
 import javax.vecmath.Point3d;
 import javax.vecmath.Tuple2d;
 import javax.vecmath.Tuple3d;
+import javax.vecmath.Vector3d;
 
 import utils.Cache;
 import utils.LContext;
@@ -29,6 +30,9 @@ public class Corner extends Point3d implements Iterable<Corner>
 
     public Corner nextC, prevC;
 
+    // true unless we know this corner is convex (and so can't split a non-adjacent edge)
+    public boolean reflex = true;
+
     public Corner( double x, double y, double z )
     {
         super(x,y,z);
@@ -53,6 +57,37 @@ public class Corner extends Point3d implements Iterable<Corner>
         return new Point3d (x, y, 0);
     }
 
+    /**
+     * A corner is convex if both its edges move inwards and the loop turns left here. Only reflex
+     * corners can split a non-adjacent edge, so anything we aren't sure of (outward or vertical
+     * edges, almost straight corners) is reflex.
+     *
+     * Should be called when either edge's angle changes.
+     *
+     * @return the new value of reflex
+     */
+    public boolean updateReflex()
+    {
+        reflex = true;
+
+        if ( prevL == null || nextL == null || prevL.uphill == null || nextL.uphill == null )
+            return reflex;
+
+        double pa = prevL.getAngle(), na = nextL.getAngle();
+        if ( pa <= 0 || na <= 0 || pa >= Math.PI / 2 || na >= Math.PI / 2 )
+            return reflex;
+
+        Vector3d p = prevL.direction(), n = nextL.direction();
+        double len = p.length() * n.length();
+        if ( len == 0 )
+            return reflex;
+
+        // sine of the turn, positive to the left
+        reflex = ( p.x * n.y - p.y * n.x ) / len < 0.01;
+
+        return reflex;
+    }
+
     /**
      * Corners (unlike point3ds) are only equal to themselves. We never move a point,
      * but can create multiple (uniques) at one location. We also change prev/next pointers to
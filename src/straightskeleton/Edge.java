@@ -4,9 +4,9 @@
 package straightskeleton;
 
 import java.util.HashSet;
-import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
 import javax.vecmath.Point2d;
 import javax.vecmath.Point3d;
 import javax.vecmath.Tuple3d;
@@ -14,6 +14,7 @@ import javax.vecmath.Vector3d;
 import straightskeleton.ui.Bar;
 import utils.Cache;
 import utils.ConsecutivePairs;
+import utils.IdentitySet;
 import utils.Line;
 import utils.Line3D;
 import utils.LinearForm3D;
@@ -39,14 +40,27 @@ public class Edge
     // orthogonal vector pointing uphill
     public Vector3d uphill;
     public LinearForm3D linearForm;
+
+    // cached with the linear form, so collision tests don't have to allocate them
+    public Vector3d unitDirection;
+    public boolean linearFormHasNaN;
     
     // corners that currently reference this edge in prevL or nextL
-    public Set<Corner> currentCorners = new LinkedHashSet<Corner>();
+    public Set<Corner> currentCorners = new IdentitySet<Corner>();
 
     public Machine machine;
 
     // features that this edge has been tagged with
-    public Set<Feature> profileFeatures = new LinkedHashSet<Feature>();
+    public Set<Feature> profileFeatures = new IdentitySet<Feature>();
+
+    // version stamp, bumped when the edge leaves the wavefront. Queued events found at an older generation are stale
+    int generation = 0;
+    // processed events this edge took part in, so they aren't found again. Dropped when the edge is retired.
+    List<EdgeCollision> processed;
+
+    // edges are numbered as they're made, to order collisions at the same height
+    private static AtomicInteger made = new AtomicInteger();
+    final int order = made.getAndIncrement();
 
 
     public Edge (Corner start, Corner end, double angle)
@@ -104,6 +118,10 @@ public class Edge
         Vector3d norm = getPlaneNormal();
         
         linearForm = new LinearForm3D( norm, new Vector3d(start.x, start.y, start.z)  );
+        linearFormHasNaN = linearForm.hasNaN();
+
+        unitDirection = direction();
+        unitDirection.normalize();
     }
     
     /**
@@ -149,7 +167,7 @@ public class Edge
 
     public boolean isCollisionNearHoriz(Edge other)
     {
-         return Math.abs( linearForm.collide( other.linearForm ).direction.z ) < 0.001;
+         return Math.abs( linearForm.collideDirectionZ( other.linearForm ) ) < 0.001;
     }
 
     
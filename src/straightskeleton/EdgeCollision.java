@@ -1,6 +1,7 @@
 package straightskeleton;
 
 
+import java.util.Comparator;
 import javax.vecmath.Point3d;
 import utils.LinearForm3D;
 
@@ -14,12 +15,46 @@ public class EdgeCollision implements HeightEvent
     public Edge a,b,c;
 
     public boolean debugInfinite = false;
+
+    // generations of a, b and c when the collision was found
+    private int aGen, bGen, cGen;
     
+    /**
+     * By height, then by the order the edges were made in. Collisions at exactly the
+     * same height come out of a queue in the same order, whatever else was queued.
+     */
+    public static Comparator<EdgeCollision> heightComparator = new Comparator<EdgeCollision>()
+    {
+        public int compare( EdgeCollision o1, EdgeCollision o2 )
+        {
+            int c = Double.compare( o1.getHeight(), o2.getHeight() );
+            if ( c == 0 )
+                c = o1.a.order - o2.a.order;
+            if ( c == 0 )
+                c = o1.b.order - o2.b.order;
+            if ( c == 0 )
+                c = o1.c.order - o2.c.order;
+            return c;
+        }
+    };
+
     public EdgeCollision (Point3d location, Edge e1, Edge e2, Edge e3)
     {
         this.loc = location;
 
         a = e1;b=e2;c=e3;
+
+        aGen = a.generation;
+        bGen = b.generation;
+        cGen = c.generation;
+    }
+
+    /**
+     * @return true if one of the edges has left the wavefront since this collision was found
+     */
+    public boolean isStale()
+    {
+        return aGen != a.generation || bGen != b.generation || cGen != c.generation;
     }
 
     @Override
@@ -28,23 +63,28 @@ public class EdgeCollision implements HeightEvent
         if (obj instanceof EdgeCollision)
         {
             EdgeCollision other = (EdgeCollision)obj;
-
-            return // if this is a bottleneck we could reject quickly with a hash compare?
-            (a.equals( other.a ) &&
-                        ((b.equals( other.b ) && c.equals( other.c ) ) ||
-                         (b.equals( other.c ) && c.equals( other.b ) ) )) ||
-            (a.equals( other.b ) &&
-                        ((b.equals( other.a ) && c.equals( other.c ) ) ||
-                         (b.equals( other.c ) && c.equals( other.a ) ) )) ||
-            (a.equals( other.c ) &&
-                        ((b.equals( other.a ) && c.equals( other.b ) ) ||
-                         (b.equals( other.b ) && c.equals( other.a ) ) ) );
-
-
+            return isBetween( other.a, other.b, other.c );
         }
         return false;
     }
 
+    /**
+     * @return true if this collision is between the given edges, in any order
+     */
+    public boolean isBetween( Edge e1, Edge e2, Edge e3 )
+    {
+        return // if this is a bottleneck we could reject quickly with a hash compare?
+        (a.equals( e1 ) &&
+                    ((b.equals( e2 ) && c.equals( e3 ) ) ||
+                     (b.equals( e3 ) && c.equals( e2 ) ) )) ||
+        (a.equals( e2 ) &&
+                    ((b.equals( e1 ) && c.equals( e3 ) ) ||
+                     (b.equals( e3 ) && c.equals( e1 ) ) )) ||
+        (a.equals( e3 ) &&
+                    ((b.equals( e1 ) && c.equals( e2 ) ) ||
+                     (b.equals( e2 ) && c.equals( e1 ) ) ) );
+    }
+
     /**
      * Hash is agnostic to which edge is in a, b and c
      * @return
@@ -0,0 +1,368 @@
+package straightskeleton;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import javax.vecmath.Point3d;
+import javax.vecmath.Vector3d;
+
+/**
+ * A uniform grid over the live edges of a skeleton, used to find the edges a
+ * corner might collide with without solving against every edge.
+ *
+ * When every edge moves inwards (0 < angle < PI/2), the wavefront at a later height
+ * lies inside the current one. So every future collision lies within the bounds of
+ * the current live corners, and below a maximum height (the polygon has gone
+ * by the time the slowest edge has swept the radius of the largest circle that fits).
+ *
+ * An edge is registered in the cells covered by the strip its plane sweeps in front
+ * of it up to that height. A corner looks up the cells its bisector crosses up to the
+ * same height. Both are conservative: no collision within the bounds is lost. A search
+ * of every edge also finds collisions outside them, between corners and edges that will
+ * have gone by then. Those would come to nothing when polled, but in the queue they can
+ * join (or be grouped with) real events at the same height, so CollisionQ rejects them
+ * (see rejects) whether the candidates came from the cells or not. The grid then only
+ * changes how fast events are found, not which.
+ * If any edge doesn't move inwards, the grid is disabled and all live edges are returned.
+ *
+ * The grid is built at one height and remains valid as the skeleton rises (the bounds
+ * only shrink); removed edges are filtered on lookup. It must be rebuilt when edges
+ * are added or change angle - CollisionQ does this whenever face events are cleared.
+ * It should only be built when the corner loops are consistent (not part way
+ * through processing an event).
+ */
+public class EdgeGrid
+{
+    // slack so that we prefer to accept rather than "leak" a collision
+    final static double TOL = 0.01;
+    final static int MAX_CELLS = 256;
+
+    /**
+     * Off to make every live edge a candidate, as if there were no cells. Collisions are
+     * still rejected against the same bounds, so the same events are found (slowly).
+     */
+    public static boolean useCells = true;
+
+    Skeleton skel;
+
+    boolean enabled = false;
+    double builtHeight, maxHeight;
+    double minX, minY, maxX, maxY, cellSize;
+    int nX, nY;
+
+    // edges in liveEdges order, so events are queued in the same order as a brute force search
+    Edge[] edges;
+    int[][] cells;
+    int[] cellSizes;
+
+    public EdgeGrid( Skeleton skel )
+    {
+        this.skel = skel;
+        build();
+    }
+
+    /**
+     * @return the number of edges indexed when the grid was built
+     */
+    public int size()
+    {
+        return edges.length;
+    }
+
+    /**
+     * @return true if no collision can happen here: the grid is enabled and the point is
+     * outside the bounds, or the wavefront will have gone before its height is reached
+     */
+    public boolean rejects( Point3d p )
+    {
+        return enabled && ( p.z > maxHeight || p.x < minX || p.x > maxX || p.y < minY || p.y > maxY );
+    }
+
+    private void build()
+    {
+        edges = skel.liveEdges.toArray( new Edge[skel.liveEdges.size()] );
+
+        enabled = false;
+
+        if ( skel.liveCorners.isEmpty() || edges.length < 8 )
+            return; // not worth it
+
+        double minSpeed = Double.MAX_VALUE;
+        for (Edge e : edges)
+        {
+            double angle = e.getAngle();
+            if ( angle <= 0.001 || angle >= Math.PI / 2 - 0.001 || e.linearForm == null || e.linearForm.hasNaN() )
+                return; // outwards, vertical or horizontal edges break the containment argument
+            minSpeed = Math.min( minSpeed, Math.tan( angle ) );
+        }
+
+        // corners are stored where they were created, move them all up to the newest one
+        builtHeight = skel.height;
+        for (Corner c : skel.liveCorners)
+            builtHeight = Math.max( builtHeight, c.z );
+
+        maxX = maxY = -Double.MAX_VALUE;
+        minX = minY = Double.MAX_VALUE;
+
+        List<double[]> loops = new ArrayList<double[]>();
+        Set<Corner> togo = new LinkedHashSet<Corner>( skel.liveCorners );
+        while ( !togo.isEmpty() )
+        {
+            // walk the loop by hand - inconsistent loops (eg. not closed) disable the grid rather than hang
+            List<Corner> loop = new ArrayList<Corner>();
+            Corner start = togo.iterator().next(), next = start;
+            do
+            {
+                if ( !togo.remove( next ) )
+                    return;
+                loop.add( next );
+                next = next.nextC;
+            }
+            while ( next != start );
+
+            double[] xy = new double[loop.size() * 2];
+            int i = 0;
+            for (Corner c : loop)
+            {
+                Vector3d dir = c.prevL.linearForm.collideToVector( c.nextL.linearForm );
+                if ( Double.isNaN( dir.z ) || Math.abs( dir.z ) < 0.001 )
+                    return;
+                dir.scale( ( builtHeight - c.z ) / dir.z );
+
+                double x = xy[i++] = c.x + dir.x, y = xy[i++] = c.y + dir.y;
+                minX = Math.min( minX, x );
+                minY = Math.min( minY, y );
+                maxX = Math.max( maxX, x );
+                maxY = Math.max( maxY, y );
+            }
+            loops.add( xy );
+        }
+
+        /**
+         * Edges move to their left, so a counter clockwise loop shrinks and a clockwise
+         * one grows. Only if the outermost loops shrink (and those inside them alternate)
+         * is the wavefront trapped inside the bounds.
+         */
+        double area = 0;
+        for (double[] loop : loops)
+        {
+            double a = area( loop );
+            int depth = 0;
+            for (double[] other : loops)
+                if ( other != loop && contains( other, loop[0], loop[1] ) )
+                    depth++;
+
+            if ( ( depth % 2 == 0 ) != ( a > 0 ) )
+                return;
+            area += a;
+        }
+
+        minX -= TOL;
+        minY -= TOL;
+        maxX += TOL;
+        maxY += TOL;
+
+        double width = maxX - minX, height = maxY - minY;
+
+        // no point in the polygon is further than this from its boundary (a circle that far must fit inside)...
+        double maxInset = Math.min( Math.min( width, height ) / 2, Math.sqrt( Math.max( area, 0 ) / Math.PI ) + TOL );
+        // ...and the wavefront moves at least this fast
+        maxHeight = builtHeight + maxInset / minSpeed + TOL;
+
+        int n = Math.min( MAX_CELLS, (int) Math.ceil( Math.sqrt( edges.length ) ) );
+        cellSize = Math.max( width, height ) / n;
+        nX = Math.max( 1, (int) Math.ceil( width / cellSize ) );
+        nY = Math.max( 1, (int) Math.ceil( height / cellSize ) );
+
+        cells = new int[nX * nY][];
+        cellSizes = new int[nX * nY];
+
+        for (int i = 0; i < edges.length; i++)
+            addStrip( i, edges[i] );
+
+        enabled = true;
+    }
+
+    /**
+     * Registers the edge in every cell that intersects the strip its plane covers
+     * between the current and maximum heights.
+     */
+    private void addStrip( int index, Edge e )
+    {
+        double speed = Math.tan( e.getAngle() );
+
+        // horizontal unit vector pointing up the slope
+        double ux = e.uphill.x, uy = e.uphill.y, len = Math.sqrt( ux * ux + uy * uy );
+        ux /= len;
+        uy /= len;
+
+        // signed distance in front of the edge at the current height is u.(p-start) - offset
+        double offset = ux * e.start.x + uy * e.start.y + ( builtHeight - e.start.z ) * speed;
+        double lo = offset - TOL, hi = offset + ( maxHeight - builtHeight ) * speed + TOL;
+
+        for (int j = 0; j < nY; j++)
+        {
+            double y0 = minY + j * cellSize, y1 = y0 + cellSize;
+
+            double xa, xb;
+            if ( Math.abs( ux ) < 1e-9 )
+            {
+                // strip is parallel to the x axis
+                double ya = uy * y0, yb = uy * y1;
+                if ( Math.max( ya, yb ) < lo || Math.min( ya, yb ) > hi )
+                    continue;
+                xa = minX;
+                xb = minX + nX * cellSize;
+            }
+            else
+            {
+                // lo <= ux * x + uy * y <= hi, over y in [y0,y1]
+                double a = ( lo - uy * y0 ) / ux, b = ( hi - uy * y0 ) / ux,
+                       c = ( lo - uy * y1 ) / ux, d = ( hi - uy * y1 ) / ux;
+                xa = Math.min( Math.min( a, b ), Math.min( c, d ) );
+                xb = Math.max( Math.max( a, b ), Math.max( c, d ) );
+            }
+
+            int i0 = Math.max( 0, (int) Math.floor( ( xa - minX ) / cellSize ) ),
+                i1 = Math.min( nX - 1, (int) Math.floor( ( xb - minX ) / cellSize ) );
+
+            for (int i = i0; i <= i1; i++)
+                add( j * nX + i, index );
+        }
+    }
+
+    /**
+     * Twice the signed area of the loop of packed x,y coordinates, positive if counter clockwise
+     */
+    private static double area( double[] xy )
+    {
+        double a = 0;
+        for (int i = 0, j = xy.length - 2; i < xy.length; j = i, i += 2)
+            a += xy[j] * xy[i + 1] - xy[i] * xy[j + 1];
+        return a / 2;
+    }
+
+    private static boolean contains( double[] xy, double x, double y )
+    {
+        boolean in = false;
+        for (int i = 0, j = xy.length - 2; i < xy.length; j = i, i += 2)
+            if ( ( xy[i + 1] > y ) != ( xy[j + 1] > y ) &&
+                    x < ( xy[j] - xy[i] ) * ( y - xy[i + 1] ) / ( xy[j + 1] - xy[i + 1] ) + xy[i] )
+                in = !in;
+        return in;
+    }
+
+    private void add( int cell, int index )
+    {
+        int[] list = cells[cell];
+        if ( list == null )
+            list = cells[cell] = new int[4];
+        else if ( cellSizes[cell] == list.length )
+            list = cells[cell] = Arrays.copyOf( list, list.length * 2 );
+        list[cellSizes[cell]++] = index;
+    }
+
+    /**
+     * Buffers for getCandidates, reused from one corner to the next. Each thread
+     * needs its own.
+     */
+    public static class Scratch
+    {
+        // stamps[i] == stamp if edges[i] has been seen for the current corner
+        int[] stamps = new int[0];
+        int stamp = 0;
+        int[] found = new int[16];
+        List<Edge> out = new ArrayList<Edge>();
+    }
+
+    /**
+     * @return the live edges the given corner could collide with, in liveEdges order.
+     * The list belongs to scratch, and is overwritten by the next call with it.
+     * Doesn't change the grid, so may be called from several threads at once.
+     */
+    public Collection<Edge> getCandidates( Corner corner, Scratch scratch )
+    {
+        if ( !enabled || !useCells )
+            return skel.liveEdges;
+
+        // direction the corner travels, with a unit rise
+        Vector3d dir = corner.prevL.linearForm.collideToVector( corner.nextL.linearForm );
+        if ( Double.isNaN( dir.z ) || Math.abs( dir.z ) < 0.001 )
+            return skel.liveEdges;
+        dir.scale( 1 / dir.z );
+
+        // corners are stored where they were created, which may be below builtHeight
+        double rise = maxHeight - corner.z;
+        if ( rise < 0 )
+            rise = 0;
+
+        double
+                sx = corner.x - dir.x * TOL, sy = corner.y - dir.y * TOL,
+                ex = corner.x + dir.x * ( rise + TOL ), ey = corner.y + dir.y * ( rise + TOL );
+
+        // an edge is registered in many cells, the stamps let each through once
+        if ( scratch.stamps.length < edges.length )
+            scratch.stamps = new int[edges.length];
+        if ( ++scratch.stamp == 0 )
+        {
+            Arrays.fill( scratch.stamps, 0 );
+            scratch.stamp = 1;
+        }
+        int[] stamps = scratch.stamps, found = scratch.found;
+        int stamp = scratch.stamp, count = 0;
+
+        double yLo = Math.min( sy, ey ) - TOL, yHi = Math.max( sy, ey ) + TOL;
+        int j0 = Math.max( 0, (int) Math.floor( ( yLo - minY ) / cellSize ) ),
+            j1 = Math.min( nY - 1, (int) Math.floor( ( yHi - minY ) / cellSize ) );
+
+        for (int j = j0; j <= j1; j++)
+        {
+            // clip the trajectory to this row of cells
+            double y0 = minY + j * cellSize, y1 = y0 + cellSize;
+            double t0 = 0, t1 = 1, dy = ey - sy;
+            if ( Math.abs( dy ) > 1e-12 )
+            {
+                double ta = ( y0 - TOL - sy ) / dy, tb = ( y1 + TOL - sy ) / dy;
+                t0 = Math.max( 0, Math.min( ta, tb ) );
+                t1 = Math.min( 1, Math.max( ta, tb ) );
+                if ( t0 > t1 )
+                    continue;
+            }
+
+            double xa = sx + t0 * ( ex - sx ), xb = sx + t1 * ( ex - sx );
+            int i0 = Math.max( 0, (int) Math.floor( ( Math.min( xa, xb ) - TOL - minX ) / cellSize ) ),
+                i1 = Math.min( nX - 1, (int) Math.floor( ( Math.max( xa, xb ) + TOL - minX ) / cellSize ) );
+
+            for (int i = i0; i <= i1; i++)
+            {
+                int cell = j * nX + i;
+                int[] list = cells[cell];
+                for (int k = 0; k < cellSizes[cell]; k++)
+                {
+                    int index = list[k];
+                    if ( stamps[index] == stamp )
+                        continue;
+                    stamps[index] = stamp;
+                    if ( count == found.length )
+                        found = scratch.found = Arrays.copyOf( found, found.length * 2 );
+                    found[count++] = index;
+                }
+            }
+        }
+
+        // indices are liveEdges order
+        Arrays.sort( found, 0, count );
+
+        Set<Edge> live = skel.liveEdges;
+        List<Edge> out = scratch.out;
+        out.clear();
+        for (int i = 0; i < count; i++)
+            if ( live.contains( edges[found[i]] ) )
+                out.add( edges[found[i]] );
+
+        return out;
+    }
+}
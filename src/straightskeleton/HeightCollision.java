@@ -6,10 +6,13 @@ package straightskeleton;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.Comparator;
+import java.util.HashMap;
 import java.util.Iterator;
 import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
+import javax.vecmath.Point3d;
 import utils.CloneConfirmIterator;
 import utils.ConsecutivePairs;
 import utils.Pair;
@@ -56,19 +59,23 @@ public class HeightCollision implements HeightEvent
 
         List<CoSitedCollision> coSited = new ArrayList<CoSitedCollision>();
 
-        // I love the smell of O(n^2) in the morning
-        ec:
+        // sites hashed by location into cells the size of the tolerance, so we only look at neighbouring cells
+        Map<Long, List<Integer>> grid = new HashMap<Long, List<Integer>>();
+
         for (EdgeCollision ec : coHeighted) 
         {
-            for (CoSitedCollision csc : coSited)
+            int site = findSite( grid, coSited, ec.loc );
+            if ( site >= 0 )
+                coSited.get( site ).add( ec );
+            else
             {
-                if ( ec.loc.distance( csc.loc ) < 0.01 )
-                {
-                    csc.add( ec );
-                    continue ec;
-                }
+                Long key = cellKey( cell( ec.loc.x ), cell( ec.loc.y ), cell( ec.loc.z ) );
+                List<Integer> cell = grid.get( key );
+                if ( cell == null )
+                    grid.put( key, cell = new ArrayList<Integer>() );
+                cell.add( coSited.size() );
+                coSited.add( new CoSitedCollision( ec.loc, ec, this ));
             }
-            coSited.add( new CoSitedCollision( ec.loc, ec, this ));
         }
 
         /**
@@ -106,9 +113,19 @@ public class HeightCollision implements HeightEvent
         skel.qu.holdRemoves();
 
         cit = coSited.iterator();
+        boolean first = true;
         while (cit.hasNext())
         {
             CoSitedCollision css = cit.next();
+
+            // each site is processed in full, so if we run out we stop between them
+            if ( !first )
+            {
+                skel.eventCount++;
+                if ( skel.overLimit() )
+                    break;
+            }
+            first = false;
             
             css.validateChains( skel );
             
@@ -123,6 +140,45 @@ public class HeightCollision implements HeightEvent
         return changed;
     }
     
+    // collisions closer than this are processed as one site
+    final static double CO_SITED = 0.01;
+
+    /**
+     * @return the index of the first site within CO_SITED of loc, or -1. As any such site is in a
+     * neighbouring cell, this is the site the old search over every site would have found.
+     */
+    private static int findSite( Map<Long, List<Integer>> grid, List<CoSitedCollision> coSited, Point3d loc )
+    {
+        long x = cell( loc.x ), y = cell( loc.y ), z = cell( loc.z );
+        int best = -1;
+
+        for (long i = x - 1; i <= x + 1; i++)
+            for (long j = y - 1; j <= y + 1; j++)
+                for (long k = z - 1; k <= z + 1; k++)
+                {
+                    List<Integer> cell = grid.get( cellKey( i, j, k ) );
+                    if ( cell != null )
+                        for (int site : cell)
+                            if ( ( best < 0 || site < best ) && loc.distance( coSited.get( site ).loc ) < CO_SITED )
+                                best = site;
+                }
+
+        return best;
+    }
+
+    private static long cell( double d )
+    {
+        return (long) Math.floor( d / CO_SITED );
+    }
+
+    /**
+     * Different cells may share a key, we always check distances.
+     */
+    private static long cellKey( long x, long y, long z )
+    {
+        return ( x * 73856093L ) ^ ( y * 19349663L ) ^ ( z * 83492791L );
+    }
+
     /**
      * Process horizontals.
      *
@@ -252,7 +308,7 @@ public class HeightCollision implements HeightEvent
             {
                 if (c.nextL.currentCorners.size() == 0)
                 {
-                    skel.liveEdges.remove( c.nextL );
+                    skel.retireEdge( c.nextL );
                 }
             }
         }
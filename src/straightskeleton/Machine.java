@@ -9,6 +9,7 @@ import java.util.Collections;
 import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
 import straightskeleton.ui.DirectionHeightEvent;
 
 /**
@@ -44,7 +45,7 @@ public class Machine
         Color.magenta };
 
     static String[] rainbowStrings = new String[] {"red", "green", "blue", "magenta" };
-    static int rainbowIndex = 0;
+    static AtomicInteger rainbowIndex = new AtomicInteger();
 
     public Machine()
     {
@@ -53,9 +54,10 @@ public class Machine
 
     public Machine( double initial )
     {
-        color = rainbow[ rainbowIndex % rainbowStrings.length ];
-        description = rainbowStrings[ rainbowIndex % rainbowStrings.length ];
-        rainbowIndex++;
+        // machines may be created by skeletons on different threads
+        int index = rainbowIndex.getAndIncrement();
+        color = rainbow[ index % rainbowStrings.length ];
+        description = rainbowStrings[ index % rainbowStrings.length ];
         addHeightEvent( new DirectionHeightEvent( this, initial ) );
         currentAngle = initial;
     }
@@ -80,6 +82,9 @@ public class Machine
 //        {
             e.setAngle( currentAngle );
 //        }
+
+        for ( Corner c : e.currentCorners )
+            c.updateReflex();
     }
 
     public List<Edge> findOurEdges( Skeleton skel )
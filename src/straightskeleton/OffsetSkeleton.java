@@ -181,20 +181,7 @@ public class OffsetSkeleton<E extends Machine>
 
         public boolean process( Skeleton skel )
         {
-            LoopL<Corner> copy = skel.capCopy( height );
-
-            // I would like to appologise to my future self for writing this method.
-            // (skel -> cap) segment map to (skel-before-direction-events -> cap)
-            ManyManyMap<Corner, Corner> outputOldSegments = 
-                    skel.segmentMap.new ConvertInputCollection<Corner>   ( skel.getSegmentOriginator() ).get();
-
-            // to input -> cap
-            ManyManyMap<Corner, Corner> inputCapSegments =
-                    outputOldSegments.new ConvertInputCollection<Corner>( oldInputSegments.asCache () ).get();
-
-            inputCapSegments = inputCapSegments.getFlipShallow();
-
-            output.add( new Offset( copy , inputCapSegments ) ); // should be new->old segments
+            output.add( slice( skel, height, oldInputSegments ) );
             
             if ( endHere ) // fixme: part of a kludge-fix. seems to be responsible for final cap.
             {
@@ -219,6 +206,93 @@ public class OffsetSkeleton<E extends Machine>
         }
     }
 
+    /**
+     * Takes a copy of the skeleton's wavefront at the given height, with the map from
+     * the copy's segments back to the input's.
+     *
+     * @param inputSegments the (clone -> input) segments, for the skeleton's input clone
+     */
+    private static Offset slice( Skeleton skel, double height, SetCorrespondence<Corner, Corner> inputSegments )
+    {
+        LoopL<Corner> copy = skel.capCopy( height );
+
+        // I would like to appologise to my future self for writing this method.
+        // (skel -> cap) segment map to (skel-before-direction-events -> cap)
+        ManyManyMap<Corner, Corner> outputOldSegments =
+                skel.segmentMap.new ConvertInputCollection<Corner>   ( skel.getSegmentOriginator() ).get();
+
+        // to input -> cap
+        ManyManyMap<Corner, Corner> inputCapSegments =
+                outputOldSegments.new ConvertInputCollection<Corner>( inputSegments.asCache () ).get();
+
+        inputCapSegments = inputCapSegments.getFlipShallow();
+
+        return new Offset( copy , inputCapSegments ); // should be new->old segments
+    }
+
+    /**
+     * Offsets the input to each of the given heights with a single skeleton. Unlike
+     * getResults, the edges keep their machines (so the heights are in the skeleton's
+     * units), and nothing is restarted between heights: the wavefront is sliced as the
+     * skeleton rises past each one, and the skeleton stops after the last.
+     *
+     * The skeleton's output isn't kept, so the memory used is that of the slices.
+     * The input isn't changed.
+     *
+     * @param heights the heights to slice at, in ascending order
+     * @return an offset for each height. Heights above the top of the skeleton give
+     * empty shapes.
+     */
+    public static List<Offset> sweep( LoopL<Corner> corners, List<Double> heights )
+    {
+        final List<Offset> out = new ArrayList<Offset>();
+        if ( heights.isEmpty() )
+            return out;
+
+        CornerClone cc = new CornerClone( corners );
+        final SetCorrespondence<Corner, Corner> inputSegments = cc.nOSegments;
+
+        Skeleton skel = new Skeleton( cc.output );
+        skel.name = "sweep";
+        skel.setListener( new SkeletonListener.Adapter(), false );
+
+        double last = -Double.MAX_VALUE;
+        for ( int i = 0; i < heights.size(); i++ )
+        {
+            final double height = heights.get( i );
+            final boolean endHere = i == heights.size() - 1;
+
+            assert height >= last;
+            last = height;
+
+            skel.qu.add( new HeightEvent()
+            {
+                public double getHeight()
+                {
+                    return height;
+                }
+
+                public boolean process( Skeleton skel )
+                {
+                    out.add( slice( skel, height, inputSegments ) );
+
+                    if ( endHere )
+                    {
+                        skel.liveEdges.clear();
+                        skel.liveCorners.clear();
+                        skel.qu.clearFaceEvents();
+                        skel.qu.clearOtherEvents();
+                    }
+                    return false;
+                }
+            } );
+        }
+
+        skel.skeleton();
+
+        return out;
+    }
+
     public static class Offset
     {
         // the shape of the offset at the given height
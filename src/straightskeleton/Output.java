@@ -4,7 +4,10 @@ package straightskeleton;
 
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
 import java.util.HashSet;
+import java.util.IdentityHashMap;
 import java.util.LinkedHashMap;
 import java.util.LinkedHashSet;
 import java.util.List;
@@ -24,6 +27,11 @@ import utils.Loopable;
 import utils.Triple;
 
 /**
+ * The faces of a skeleton. Output points and shared edges are found by hashing their
+ * locations (vertices, edges), so two corners at one place give one point. Within each
+ * face every side is a pair of half-edges, linked around each point as the side is
+ * added (see Face.addSide), so a face's loops are read off by following next.
+ *
  * @author twak
  */
 public class Output
@@ -35,14 +43,34 @@ public class Output
     public List<LoopNormal> nonSkelFaces = new ArrayList<LoopNormal>();
 
     public IdentityLookup<SharedEdge> edges = new IdentityLookup<SharedEdge>(); // edge ensure that each output edge only exists once
+    private IdentityLookup<Point3d> vertices = new IdentityLookup<Point3d>(); // each output point only exists once, so sides meet by identity
 
     public Skeleton skeleton;
 
+    // streaming (see Skeleton.setListener)
+    private SkeletonListener listener;
+    private boolean keepFaces = true;
+    // faces that may have become complete since completeFaces last looked
+    private Set<Face> touched = new LinkedHashSet<Face>();
+    // when faces are released: the number of unreleased faces at each point
+    private Map<Point3d, int[]> vertexUse = new IdentityHashMap<Point3d, int[]>();
+
     public Output(Skeleton skel)
     {
         this.skeleton = skel;
     }
 
+    void setListener( SkeletonListener listener, boolean keepFaces )
+    {
+        this.listener = listener;
+        this.keepFaces = keepFaces;
+    }
+
+    boolean hasListener()
+    {
+        return listener != null;
+    }
+
     /**
      * One edge may start in two locations at the same time. To accomodate this, you call
      * newEdge once per new edge, then new Defining Segment for each corner that references that
@@ -86,8 +114,8 @@ public class Output
         SharedEdge se= createEdge( leadingCorner, leadingCorner.nextC );
         face.definingSE.add( se );
         se.setLeft( leadingCorner, face );
-        face.results.add( se.start, se.end );
         se.features.add( isCreatedHorizontal );
+        face.addSide( se );
 
         face.definingCorners.add( leadingCorner );
     }
@@ -98,16 +126,20 @@ public class Output
     }
     public void addOutputSideTo( boolean isTop, Tuple3d a, Tuple3d b, Edge... edges ) // a.y == b.yequals(b)
     {
+        // one side, shared by every face it bounds
+        int count = this.edges.map.size();
+        SharedEdge se = createEdge( a, b );
+        if ( listener != null && this.edges.map.size() > count )
+            listener.arc( se.start, se.end );
+
         for ( Edge edge : edges )
         {
             Corner c = edge.start; // assumption: start of edge will always be a leading corner on the face!
             Face f = faces.get( c );
             assert (f != null);
             if (isTop)
-                f.topSE.add( createEdge( a, b ) );
-            // just check those tuple's aren't corners....
-            f.results.add( new Point3d( a ), new Point3d( b ) );
-//            System.out.println(">>");
+                f.topSE.add( se );
+            f.addSide( se );
         }
     }
 
@@ -167,8 +199,8 @@ public class Output
 //    }
 
     /**
-     * Constructs the faces from using the results graph and
-     * the points involved with each edge.
+     * Constructs the faces that haven't been reported, by reading the loops from their
+     * half-edges.
      */
     public void calculate( Skeleton skel )
     {
@@ -176,109 +208,118 @@ public class Output
 //        for (Face f : faces.values())
 //            f.plan = skel.getPlanTags( getOriginator( f ) );
 
-        // collect identical edges in different polygons
-        edge:
         for ( Face face :faces.values() ) //e.toString()
+            if ( !face.reported )
+                calculate( face );
+
+        completeAll();
+
+        // * so we remove faces without polygons
+        List<Face> nullFaces = new ArrayList<Face>();
+        for (Face f : faces.values())
         {
-//            System.out.println( face.results );
-            Set<Point3d> notVisited = new LinkedHashSet<Point3d>( face.results.map.keySet() );
-            LoopL<Point3d> faceWithHoles = new LoopL<Point3d>(); // first entry here is outer boundary
-            face.points = faceWithHoles;
+            if (!f.released && f.points.size() <= 0)
+                nullFaces.add( f );
+        }
+        
+        assert (nullFaces.size() == 0); // do something sensible!
+    }
 
-            try
-            {
-            Point3d edgeStart = face.definingSE.iterator().next().getStart( face );
+    /**
+     * Constructs a single face, for skeletons that build their output lazily (ArraySkeleton).
+     */
+    void calculate( Face face )
+    {
+        if ( face.released )
+            return;
 
-//            System.out.println ("results "+face.results); //face.points.count()
+        face.findLoops();
+    }
 
-            while ( !notVisited.isEmpty() )
-            {
-                // associated face input polygon
-                Loop<Point3d> poly = new Loop<Point3d>();
-//                faceWithHoles.add( poly );
-                boolean isOuter = notVisited.contains( edgeStart );
+    /**
+     * Reports every face that hasn't been, once they've all been calculated.
+     */
+    void completeAll()
+    {
+        if ( listener == null )
+            return;
 
-                Point3d // first loop should be the outline ie: should satrt at the defining edges
-                        start = isOuter ? edgeStart : notVisited.iterator().next(),
-                        pos = start,
-                        last = face.results.get(start).get(0); // arb. direction
+        for ( Face face : new ArrayList<Face>( faces.values() ) )
+            report( face );
+        touched.clear();
+    }
 
-                Point3d first = null, lastAdded = null;
+    /**
+     * An input edge has left the wavefront, its face may be complete.
+     */
+    void retired( Edge e )
+    {
+        if ( listener == null )
+            return;
+        Face f = faces.get( e.start );
+        if ( f != null )
+            touched.add( f );
+    }
 
-                AngleAccumulator ac = new AngleAccumulator( isOuter, face.edge.getPlaneNormal() );
+    /**
+     * Reports the faces that have become complete: their edge is no longer live, and every
+     * point has at least two sides. Called between events.
+     */
+    void completeFaces()
+    {
+        if ( listener == null || touched.isEmpty() )
+            return;
 
-                int count = 0;
+        for ( Face f : touched )
+            if ( !f.reported && f.openEnds == 0 && !f.leaving.isEmpty() && !skeleton.liveEdges.contains( f.edge ) )
+            {
+                calculate( f );
+                report( f );
+            }
 
-                pointsInLoop:
-                do
-                {
-                    List<Point3d> choice = face.results.get( pos );
-                    assert ( choice != null );
+        touched.clear();
+    }
 
-                    for ( Point3d c : choice )
-                    {
-                        if ( count++ > 1000 ) // handbrake turn!
-                            continue edge;
-
-                        if ( !last.equals( c ) && !pos.equals( c ) )
-                        {
-                            if (first == null)
-                                first = c;
-                            
-                            notVisited.remove( c );
-                            
-                            // remove short edges between the previous corners, and between the current corner and the startstart (bad hack)
-                            if ( (lastAdded == null || lastAdded.distance( c ) > 0.01) && (first == c || first.distance( c ) > 0.01))
-                            {
-                                poly.append( c );
-                                ac.add( c );
-                                lastAdded = c;
-                            }
-
-                            last = pos;
-                            pos = c;
-                            continue pointsInLoop;
-                        }
-                    }
-                    
-                    System.out.println( "didn't find faces on " + face.definingSE );
-//                    new GraphMapDebug( face.results );
-                    System.out.println( face.results );
-                    continue edge; 
-                }
-                while (pos != start);
+    private void report( Face face )
+    {
+        if ( face.reported )
+            return;
+        face.reported = true;
 
-                // inner loops go counter clockwise
-                if (!ac.correctAngle())
-                    poly.reverse();
+        listener.face( face );
 
-                removeStraights (poly);
+        if ( !keepFaces )
+            release( face );
+    }
 
-                // as we remove degenerately small polygons *
-                if (poly.count() >= 3)
-                    faceWithHoles.add( poly );
-            }
-                        }
-            catch (Throwable e)
-            {
-//                e.printStackTrace();
-                continue;
-            }
+    /**
+     * Forgets the geometry of a face that the listener has seen. Faces stay in the faces
+     * map (they're parents, and corners still find them), but are empty. Edges and
+     * points are forgotten once nothing else refers to them.
+     */
+    private void release( Face face )
+    {
+        face.released = true;
 
-        }
+        for ( SharedEdge se : face.edges.eIterator() )
+            forget( se );
+        for ( SharedEdge se : face.sides )
+            forget( se );
 
-        // * so we remove faces without polygons
-        List<Face> nullFaces = new ArrayList<Face>();
-        for (Face f : faces.values())
+        for ( Point3d pt : face.leaving.keySet() )
         {
-            if (f.points.size() <= 0)
-                nullFaces.add( f );
+            int[] use = vertexUse.get( pt );
+            if ( use != null && --use[0] <= 0 )
+            {
+                vertexUse.remove( pt );
+                vertices.map.remove( pt );
+            }
         }
-        
-        assert (nullFaces.size() == 0); // do something sensible!
 
-        for (Face f : faces.values())
-            f.findSharedEdges();
+        face.sides = new ArrayList<SharedEdge>();
+        face.leaving.clear();
+        face.points = new LoopL<Point3d>();
+        face.edges = new LoopL<SharedEdge>();
     }
 
     /**
@@ -302,7 +343,9 @@ public class Output
         }
 
         toKeepFace.definingSE.addAll( toGoFace.definingSE );
-        toKeepFace.results.addEntriesFrom( toGoFace.results );
+        if ( toGoFace != toKeepFace && !toKeepFace.released )
+            for ( SharedEdge se : toGoFace.sides )
+                toKeepFace.addSide( se );
 
         toKeepFace.definingCorners.addAll( toGoFace.definingCorners );
 
@@ -313,13 +356,28 @@ public class Output
 
     private SharedEdge createEdge ( Tuple3d start, Tuple3d end)
     {
-        SharedEdge newEdge = new SharedEdge (new Point3d (start), new Point3d (end ));
+        SharedEdge newEdge = new SharedEdge (vertex( start ), vertex( end ));
         newEdge = edges.get( newEdge ); // identity lookup - only one edge!
 
         return newEdge;
     }
 
 
+    private void forget( SharedEdge se )
+    {
+        if ( ( se.left == null || se.left.released ) && ( se.right == null || se.right.released ) )
+            edges.map.remove( se );
+    }
+
+    private Point3d vertex( Tuple3d pt )
+    {
+        Point3d neu = new Point3d( pt ); // corners compare by identity, so always copy
+        Point3d out = vertices.get( neu );
+        if ( out == neu && listener != null )
+            listener.node( out );
+        return out;
+    }
+
     public Cache <Corner, Collection<Corner>>  getSegmentOriginator()
     {
         return new Cache<Corner, Collection<Corner>>()
@@ -397,7 +455,8 @@ public class Output
         // face below us in the skeleton - can be traced back to an originator
         public Face parent;
         
-        public GraphMap<Point3d> results = new GraphMap<Point3d>();
+        // every output side of this face, in the order they were added
+        public List<SharedEdge> sides = new ArrayList<SharedEdge>();
 
         // a typical edge that defines the plane normal
         public Edge edge;
@@ -407,6 +466,309 @@ public class Output
 
         public LoopL<SharedEdge> edges = new LoopL<SharedEdge>();
 
+        // the half-edges leaving each point, anticlockwise in the face's plane
+        Map<Point3d, List<HalfEdge>> leaving = new IdentityHashMap<Point3d, List<HalfEdge>>();
+        // the number of points with a single side, the face is open while there are any
+        int openEnds = 0;
+        // axes of the face's plane: along the edge, and uphill
+        private Vector3d along, up;
+
+        // given to the listener, and maybe forgotten (see Output.release)
+        boolean reported = false, released = false;
+
+        /**
+         * @return the graph of every side of the face
+         */
+        public GraphMap<Point3d> getResults()
+        {
+            GraphMap<Point3d> results = new GraphMap<Point3d>();
+            for ( SharedEdge se : sides )
+                results.add( se.start, se.end );
+            return results;
+        }
+
+        /**
+         * Adds a side as a pair of half-edges, each placed by angle among the half-edges
+         * leaving its start. Output points are unique (see vertex), so sides meet by identity.
+         */
+        void addSide( SharedEdge se )
+        {
+            if ( released )
+                return;
+
+            List<HalfEdge> atStart = leaving( se.start );
+            for ( HalfEdge h : atStart )
+                if ( h.edge == se )
+                    return;
+
+            if ( se.start == se.end )
+            {
+                // a point, nothing to walk
+                if ( !sides.contains( se ) )
+                    sides.add( se );
+                return;
+            }
+
+            sides.add( se );
+
+            HalfEdge out = new HalfEdge( se, se.start ), back = new HalfEdge( se, se.end );
+            out.twin = back;
+            back.twin = out;
+            out.angle = angle( se.start, se.end );
+            back.angle = angle( se.end, se.start );
+
+            insert( atStart, out );
+            insert( leaving( se.end ), back );
+
+            if ( listener != null )
+                touched.add( this );
+        }
+
+        private List<HalfEdge> leaving( Point3d pt )
+        {
+            List<HalfEdge> out = leaving.get( pt );
+            if ( out == null )
+            {
+                leaving.put( pt, out = new ArrayList<HalfEdge>( 2 ) );
+
+                if ( !keepFaces )
+                {
+                    int[] use = vertexUse.get( pt );
+                    if ( use == null )
+                        vertexUse.put( pt, use = new int[1] );
+                    use[0]++;
+                }
+            }
+            return out;
+        }
+
+        /**
+         * Adds out to the half-edges around its start, and relinks the two whose next
+         * changes. As in graph.RotationSystem, arriving along a twin the next half-edge
+         * is the one just clockwise of it, so each loop turns as far left as it can and
+         * the face's outline runs anticlockwise.
+         */
+        private void insert( List<HalfEdge> around, HalfEdge out )
+        {
+            int i = 0;
+            while ( i < around.size() && around.get( i ).angle <= out.angle )
+                i++;
+            around.add( i, out );
+
+            int n = around.size();
+            out.twin.next = around.get( ( i + n - 1 ) % n );
+            around.get( ( i + 1 ) % n ).twin.next = out;
+
+            if ( n == 1 )
+                openEnds++;
+            else if ( n == 2 )
+                openEnds--;
+        }
+
+        /**
+         * The direction from a to b in the face's plane
+         */
+        private double angle( Point3d a, Point3d b )
+        {
+            if ( along == null )
+            {
+                along = edge.direction();
+                along.normalize();
+            }
+
+            // the defining sides can arrive before the edge has its slope, they're along the edge anyway
+            Vector3d across = up;
+            if ( across == null )
+            {
+                if ( edge.uphill != null )
+                    across = up = new Vector3d( edge.uphill );
+                else
+                    across = new Vector3d( -along.y, along.x, 0 );
+            }
+
+            Vector3d d = new Vector3d( b );
+            d.sub( a );
+            return Math.atan2( d.dot( across ), d.dot( along ) );
+        }
+
+        /**
+         * Reads the face's loops from its half-edges. Each loop that turns left follows a
+         * region of the plane anticlockwise. The region outside the face is the one on the
+         * far side of the defining edge, and its loop, reversed, is the outline. Other
+         * regions that aren't part of the face (they touch the face, but not the outside)
+         * are holes.
+         */
+        void findLoops()
+        {
+            points = new LoopL<Point3d>(); // first entry here is outer boundary
+            edges = new LoopL<SharedEdge>();
+
+            HalfEdge defining = null;
+            for ( SharedEdge se : definingSE )
+            {
+                List<HalfEdge> around = leaving.get( se.start );
+                if ( around != null )
+                    for ( HalfEdge h : around )
+                        if ( h.edge == se )
+                            defining = Math.cos( h.angle ) > 0 ? h : h.twin;
+                if ( defining != null )
+                    break;
+            }
+
+            if ( defining == null )
+                return;
+
+            List<List<HalfEdge>> loops = new ArrayList<List<HalfEdge>>();
+            Map<HalfEdge, Integer> loopOf = new IdentityHashMap<HalfEdge, Integer>();
+            List<Double> turns = new ArrayList<Double>();
+
+            for ( List<HalfEdge> around : leaving.values() )
+                for ( HalfEdge first : around )
+                {
+                    if ( loopOf.containsKey( first ) )
+                        continue;
+
+                    List<HalfEdge> loop = new ArrayList<HalfEdge>();
+                    double turn = 0;
+                    HalfEdge h = first;
+                    do
+                    {
+                        loopOf.put( h, loops.size() );
+                        loop.add( h );
+                        turn += h.turn();
+                        h = h.next;
+                    }
+                    while ( h != first );
+
+                    loops.add( loop );
+                    turns.add( turn );
+                }
+
+            int outside = loopOf.get( defining.twin );
+            if ( outside == loopOf.get( defining ) )
+            {
+                System.out.println( "didn't find faces on " + definingSE );
+                return; // the outline isn't closed
+            }
+
+            List<Point3d> walk = reversed( loops.get( outside ) );
+
+            // the walk ends where it starts, at the end of the defining edge
+            int start = walk.indexOf( defining.twin.start );
+            Collections.rotate( walk, start >= 0 ? -start - 1 : 0 );
+            addLoop( walk, true );
+
+            // holes start at, and are ordered by, their least point, so the order sides arrived in doesn't matter
+            List<List<Point3d>> holes = new ArrayList<List<Point3d>>();
+
+            holes:
+            for ( int i = 0; i < loops.size(); i++ )
+            {
+                if ( i == outside || turns.get( i ) <= 0 || i == loopOf.get( defining ) )
+                    continue;
+
+                for ( HalfEdge h : loops.get( i ) )
+                    if ( loopOf.get( h.twin ) == outside )
+                        continue holes; // part of the face, beside the outline
+
+                walk = reversed( loops.get( i ) );
+                Point3d least = walk.get( 0 );
+                for ( Point3d p : walk )
+                    if ( LEAST.compare( p, least ) < 0 )
+                        least = p;
+                Collections.rotate( walk, -walk.indexOf( least ) - 1 );
+                holes.add( walk );
+            }
+
+            Collections.sort( holes, new Comparator<List<Point3d>>()
+            {
+                public int compare( List<Point3d> o1, List<Point3d> o2 )
+                {
+                    return LEAST.compare( o1.get( o1.size() - 1 ), o2.get( o2.size() - 1 ) );
+                }
+            } );
+
+            for ( List<Point3d> hole : holes )
+                addLoop( hole, false );
+        }
+
+        /**
+         * @return the points of a loop of half-edges, in the opposite direction
+         */
+        private List<Point3d> reversed( List<HalfEdge> loop )
+        {
+            List<Point3d> walk = new ArrayList<Point3d>( loop.size() );
+            for ( int i = loop.size() - 1; i >= 0; i-- )
+                walk.add( loop.get( i ).twin.start );
+            return walk;
+        }
+
+        /**
+         * Adds a loop of points, removing short and straight sections.
+         * @param walk the points in order around the loop, in either direction
+         * @param isOuter true for the outline of the face, false for a hole
+         */
+        private void addLoop( List<Point3d> walk, boolean isOuter )
+        {
+            Loop<Point3d> poly = new Loop<Point3d>();
+            Point3d first = null, lastAdded = null;
+
+            AngleAccumulator ac = new AngleAccumulator( isOuter, edge.getPlaneNormal() );
+
+            for ( Point3d c : walk )
+            {
+                if ( first == null )
+                    first = c;
+
+                // remove short edges between the previous corners, and between the current corner and the startstart (bad hack)
+                if ( ( lastAdded == null || lastAdded.distance( c ) > 0.01 ) && ( first == c || first.distance( c ) > 0.01 ) )
+                {
+                    poly.append( c );
+                    ac.add( c );
+                    lastAdded = c;
+                }
+            }
+
+            // inner loops go counter clockwise
+            if (!ac.correctAngle())
+                poly.reverse();
+
+            removeStraights (poly);
+
+            // as we remove degenerately small polygons *
+            if (poly.count() < 3)
+                return;
+
+            Loop<SharedEdge> loop = new Loop<SharedEdge>();
+            for (Loopable<Point3d> loopable : poly.loopableIterator())
+            {
+                Point3d a = loopable.get(), b = loopable.getNext().get();
+
+                // the side if there is one, else a new edge across the removed section
+                SharedEdge e = null;
+                for ( HalfEdge h : leaving( a ) )
+                    if ( h.twin.start == b )
+                        e = h.edge;
+                if ( e == null )
+                    e = createEdge( a, b );
+
+                e.setLeft( a, this );
+                loop.append( e );
+            }
+
+            // the outline is always first
+            if ( isOuter )
+            {
+                points.add( 0, poly );
+                edges.add( 0, loop );
+            }
+            else
+            {
+                points.add( poly );
+                edges.add( loop );
+            }
+        }
+
         public LoopL<Point3d> getLoopL()
         {
             return points;
@@ -448,24 +810,6 @@ public class Output
             }
             return count;
         }
-
-        private void findSharedEdges()
-        {
-            edges = new LoopL<SharedEdge>();
-            for (Loop <Point3d> ptLoop : points)
-            {
-                Loop<SharedEdge> loop = new Loop<SharedEdge>();
-                edges.add (loop);
-                // start and end points of SharedEdges **aren't** shared
-                for (Loopable<Point3d> loopable : ptLoop.loopableIterator())
-                {
-                    SharedEdge e = createEdge( loopable.get(), loopable.getNext().get() );
-                    e.setLeft (loopable.get(), this );
-
-                    loop.append( e );
-                }
-            }
-        }
     }
 
     public static class SharedEdge
@@ -553,6 +897,61 @@ public class Output
         }
     }
 
+    // orders points by x, then y, then z
+    private static final Comparator<Point3d> LEAST = new Comparator<Point3d>()
+    {
+        public int compare( Point3d o1, Point3d o2 )
+        {
+            int out = Double.compare( o1.x, o2.x );
+            if ( out == 0 )
+                out = Double.compare( o1.y, o2.y );
+            if ( out == 0 )
+                out = Double.compare( o1.z, o2.z );
+            return out;
+        }
+    };
+
+    /**
+     * One direction of a side, within one face. The twin is the other direction of the
+     * same side in the same face; the face on the far side is edge.getOther(face).
+     * Following next walks a loop with the region it bounds on its left.
+     */
+    static class HalfEdge
+    {
+        final SharedEdge edge;
+        final Point3d start;
+        HalfEdge twin, next;
+        // direction in the face's plane
+        double angle;
+
+        HalfEdge( SharedEdge edge, Point3d start )
+        {
+            this.edge = edge;
+            this.start = start;
+        }
+
+        /**
+         * The angle turned from here to next: -PI going back along this side.
+         */
+        double turn()
+        {
+            if ( next == twin )
+                return -Math.PI;
+            double diff = next.angle - angle;
+            if ( diff >= Math.PI )
+                return diff - 2 * Math.PI;
+            if ( diff < -Math.PI )
+                return diff + 2 * Math.PI;
+            return diff;
+        }
+
+        @Override
+        public String toString()
+        {
+            return start + " to " + twin.start;
+        }
+    }
+
     public Output dupeEdgesOnly()
     {
         Output out = new Output( null );
@@ -565,10 +964,9 @@ public class Output
 
                 Face face = new Face();
 
-                GraphMap<Point3d> outGM = new GraphMap<Point3d>();
-                outGM.addEntriesFrom( old.results );
-                
-                face.results = outGM;
+                // just the sides, these faces aren't calculated
+                face.sides.addAll( old.sides );
+
                 face.parent = old.parent == null ? null : get( old.parent );
                 face.edge = new Edge( old.edge.start, old.edge.end );
 
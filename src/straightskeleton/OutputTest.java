@@ -0,0 +1,112 @@
+package straightskeleton;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import javax.vecmath.Point3d;
+
+import org.junit.Test;
+
+import utils.Loop;
+import utils.LoopL;
+
+import junit.framework.Assert;
+
+public class OutputTest
+{
+    /**
+     * A face's loops come from its half-edges, so they mustn't depend on the order its
+     * sides were added in.
+     */
+    @Test public void testSideOrderDoesntMatter()
+    {
+        for (int seed = 0; seed < 10; seed++)
+        {
+            Skeleton skel = new Skeleton( starWithHole( seed, 60 ), true );
+            skel.skeleton();
+
+            Random rand = new Random( seed );
+            for (Output.Face face : skel.output.faces.values())
+            {
+                String before = loops( face );
+
+                List<Output.SharedEdge> sides = new ArrayList<Output.SharedEdge>( face.sides );
+                Collections.shuffle( sides, rand );
+
+                face.sides = new ArrayList<Output.SharedEdge>();
+                face.leaving.clear();
+                face.openEnds = 0;
+                for (Output.SharedEdge se : sides)
+                    face.addSide( se );
+                Assert.assertEquals( 0, face.openEnds );
+
+                face.findLoops();
+                Assert.assertEquals( "seed " + seed, before, loops( face ) );
+            }
+        }
+    }
+
+    /**
+     * Every side of a face is on another face, or on the input.
+     */
+    @Test public void testSidesAreShared()
+    {
+        Skeleton skel = new Skeleton( starWithHole( 3, 60 ), true );
+        skel.skeleton();
+
+        for (Output.Face face : skel.output.faces.values())
+        {
+            Assert.assertTrue( face.points.size() > 0 );
+            for (Output.SharedEdge se : face.edges.eIterator())
+                Assert.assertTrue( face.isBottom( se ) || se.getOther( face ) != null );
+        }
+    }
+
+    private static String loops( Output.Face face )
+    {
+        StringBuilder sb = new StringBuilder();
+        for (Loop<Point3d> loop : face.points)
+        {
+            for (Point3d p : loop)
+                sb.append( p ).append( ' ' );
+            sb.append( '\n' );
+        }
+        return sb.toString();
+    }
+
+    /**
+     * A counter clockwise star of n points with a small clockwise hole in the middle.
+     */
+    private static LoopL<Edge> starWithHole( long seed, int n )
+    {
+        Random rand = new Random( seed );
+        Machine machine = new Machine( Math.PI / 4 );
+        LoopL<Edge> input = new LoopL<Edge>();
+
+        input.add( loop( machine, rand, n, 50, 50 ) );
+        input.add( loop( machine, rand, 7, -10, 10 ) );
+
+        return input;
+    }
+
+    private static Loop<Edge> loop( Machine machine, Random rand, int n, double radius, double jitter )
+    {
+        List<Corner> corners = new ArrayList<Corner>();
+        for (int i = 0; i < n; i++)
+        {
+            double angle = Math.signum( radius ) * Math.PI * 2 * i / n,
+                   r = Math.abs( radius ) + rand.nextDouble() * jitter;
+            corners.add( new Corner( r * Math.cos( angle ), r * Math.sin( angle ) ) );
+        }
+
+        Loop<Edge> loop = new Loop<Edge>();
+        for (int i = 0; i < corners.size(); i++)
+        {
+            Edge e = new Edge( corners.get( i ), corners.get( ( i + 1 ) % corners.size() ) );
+            e.machine = machine;
+            loop.append( e );
+        }
+        return loop;
+    }
+}
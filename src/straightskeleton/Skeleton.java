@@ -19,6 +19,7 @@ import javax.vecmath.Tuple3d;
 import straightskeleton.Output.Face;
 import straightskeleton.debug.DebugDevice;
 import utils.Cache;
+import utils.CancelToken;
 import utils.CloneConfirmIterator;
 import utils.DHash;
 import utils.LinearForm3D;
@@ -51,9 +52,6 @@ public class Skeleton
     public double height = 0;
 //    public Set<Edge> inputEdges = new LinkedHashSet();
 
-    // we store the triplets of faces we've already passed out to stop repeats (insensitive to face order)
-    public Set<EdgeCollision> seen = new LinkedHashSet<EdgeCollision>();
-
     // output data
     public LoopL<Corner> flatTop = new LoopL<Corner>();
     public Output output = new Output( this );
@@ -71,9 +69,55 @@ public class Skeleton
 
     // lazy system for refinding all face events. true so we run it once at start
     boolean refindFaceEvents = true;
+    // edges whose extent has changed since the last refind (eg: parallel faces merged). Only
+    // these, and the corners that reference them, are collided again
+    Set<Edge> changedEdges = new LinkedHashSet<Edge>();
+
+    // number of corner-edge collision tests the incremental refind has avoided in this run
+    public long collisionTestsSaved = 0;
+
+    /**
+     * How much checking validate() does after each event:
+     * OFF costs nothing,
+     * SAMPLED checks a few corners,
+     * INCREMENTAL checks the corners created or relinked since the last event,
+     * FULL checks every corner against every other (O(n^2) per event).
+     */
+    public enum Validation { OFF, SAMPLED, INCREMENTAL, FULL }
+
+    // level for new skeletons. The checks are assertions, so only worth running with -ea.
+    public static Validation defaultValidation = assertionsEnabled() ? Validation.FULL : Validation.OFF;
+    public Validation validation = defaultValidation;
+
+    /**
+     * How the last call to skeleton() ended: COMPLETE when the queue ran dry, else it ran
+     * out of time or events (see setLimits) and the output was capped where it stopped.
+     */
+    public enum Status { COMPLETE, OUT_OF_TIME, OUT_OF_EVENTS }
+    public Status status = Status.COMPLETE;
+
+    // limits for skeleton(), and how much of them have been used
+    private long timeLimit = 0, deadline; // nanos, 0 for none
+    private int eventLimit = Integer.MAX_VALUE;
+    int eventCount = 0;
+    // asked to give up by another thread
+    CancelToken cancel;
+
+    // corners touched since the last validate (INCREMENTAL and SAMPLED only)
+    private Set<Corner> touched = new LinkedHashSet<Corner>();
+    // corners per SAMPLED validation, and where the last one stopped
+    private final static int SAMPLE_SIZE = 16;
+    private Corner sampleCursor;
 
     protected Skeleton(){}
 
+    private static boolean assertionsEnabled()
+    {
+        boolean enabled = false;
+        assert enabled = true;
+        return enabled;
+    }
+
 //    public Skeleton ( List<Edge> edges )
 //    {
 //        LoopL<Edge> input = new LoopL();
@@ -114,13 +158,7 @@ public class Skeleton
             }
 
             public boolean process(Skeleton skel) {
-                SkeletonCapUpdate capUpdate = new SkeletonCapUpdate(skel);
-
-                flatTop = capUpdate.getCap(cap);
-                
-//                DebugDevice.dump("pre cap dump", skel);
-                // this call should remove all geometry, and cap the remainder...?
-                capUpdate.update(new LoopL<Corner>(), new SetCorrespondence<Corner, Corner>(), new DHash<Corner, Corner>());
+                capAt( cap );
                 DebugDevice.dump("post cap dump", skel);
 
                 // we're the last event!
@@ -139,7 +177,14 @@ public class Skeleton
     public Skeleton( LoopL<Edge> input, final double cap )
     {
         setupForEdges(input);
+        addCap( cap );
+    }
 
+    /**
+     * Adds the event that finishes the skeleton, flat topped, at the given height.
+     */
+    void addCap( final double cap )
+    {
         qu.add( new HeightEvent() {
 
             public double getHeight() {
@@ -148,11 +193,7 @@ public class Skeleton
 
             public boolean process(Skeleton skel)
             {
-                SkeletonCapUpdate capUpdate = new SkeletonCapUpdate( skel );
-
-                flatTop = capUpdate.getCap( cap );
-                // this call should remove all geometry, and cap the remainder...?
-                capUpdate.update( new LoopL<Corner>(), new SetCorrespondence<Corner, Corner>(), new DHash<Corner, Corner>());
+                capAt( cap );
              
                 // we're the last event!
 //                qu.clearFaceEvents();
@@ -240,11 +281,88 @@ public class Skeleton
 //        qu.dump(); // debug
     }
 
+    /**
+     * Removes an edge from the wavefront. Bumping its generation invalidates any queued
+     * collisions that reference it.
+     */
+    public void retireEdge( Edge e )
+    {
+        if ( liveEdges.remove( e ) )
+        {
+            e.generation++;
+            e.processed = null;
+            output.retired( e );
+        }
+    }
+
+    /**
+     * Finishes the skeleton at the given height: the wavefront there becomes flatTop, and
+     * every face still rising is given a top edge.
+     */
+    void capAt( double height )
+    {
+        SkeletonCapUpdate capUpdate = new SkeletonCapUpdate( this );
+
+        flatTop = capUpdate.getCap( height );
+        // this call should remove all geometry, and cap the remainder...?
+        capUpdate.update( new LoopL<Corner>(), new SetCorrespondence<Corner, Corner>(), new DHash<Corner, Corner>());
+    }
+
+    /**
+     * Bounds the time and number of events skeleton() may take. If either runs out,
+     * the skeleton stops where it is: the faces are capped at the current height, as if
+     * it had been built with a cap there, and status says why.
+     *
+     * Events are those polled from the queue, and each further site of a collision
+     * at one height. Only this (the general) skeleton checks its limits.
+     *
+     * @param millis wall clock time for each run, 0 for no limit
+     * @param maxEvents Integer.MAX_VALUE for no limit
+     */
+    public void setLimits( long millis, int maxEvents )
+    {
+        timeLimit = millis * 1000000;
+        eventLimit = maxEvents;
+    }
+
+    /**
+     * Lets another thread stop skeleton() part way through. Unlike the limits, a
+     * cancelled skeleton doesn't finish its output: skeleton() throws
+     * CancelToken.Cancelled from the next event, and the output should be dropped.
+     * Finding the first collisions is checked corner by corner, so to cancel that, set
+     * the token before setup() (as the engines do).
+     *
+     * @param cancel null for none
+     */
+    public void setCancel( CancelToken cancel )
+    {
+        this.cancel = cancel;
+    }
+
+    /**
+     * @return true if the current run has used up its time or events. Sets status.
+     */
+    boolean overLimit()
+    {
+        if ( status == Status.COMPLETE )
+        {
+            if ( eventCount >= eventLimit )
+                status = Status.OUT_OF_EVENTS;
+            else if ( timeLimit > 0 && System.nanoTime() - deadline > 0 )
+                status = Status.OUT_OF_TIME;
+        }
+        return status != Status.COMPLETE;
+    }
+
     /**
      * Execute the skeleton algorithm
      */
     public void skeleton()
     {
+        status = Status.COMPLETE;
+        eventCount = 0;
+        deadline = System.nanoTime() + timeLimit;
+
         validate();
         HeightEvent he;
 
@@ -254,6 +372,16 @@ public class Skeleton
         while ( ( he = qu.poll() ) != null )
             try
             {
+                CancelToken.check( cancel );
+
+                if ( overLimit() )
+                {
+                    // close what we have at the wavefront's current height
+                    capAt( height );
+                    break;
+                }
+                eventCount++;
+
                 if ( he.process( this ) ) // business happens here
                 {
                     DebugDevice.dump("main "+String.format("%4d", ++i ), this );
@@ -262,6 +390,12 @@ public class Skeleton
                 }
                 //System.out.println("done at "+he.getHeight());
                 refindFaceEventsIfNeeded();
+                qu.refreshEdgeGrid();
+                output.completeFaces();
+            }
+            catch ( CancelToken.Cancelled c )
+            {
+                throw c;
             }
             catch ( Throwable t )
             {
@@ -273,10 +407,33 @@ public class Skeleton
                 }
             }
 
+        // a collision ran out part way through its sites, and was the last event
+        if ( he == null && status != Status.COMPLETE )
+            capAt( height );
+
         // build output polygons from constructed graph
         output.calculate( this );
     }
 
+    /**
+     * Streams the output as it's found (see SkeletonListener). Set before skeleton().
+     *
+     * @param keepOutput false to release each face once the listener has seen it, so
+     * the whole output is never held: getOutput()'s faces are then empty.
+     */
+    public void setListener( SkeletonListener listener, boolean keepOutput )
+    {
+        output.setListener( listener, keepOutput );
+    }
+
+    /**
+     * @return the output of the last call to skeleton()
+     */
+    public Output getOutput()
+    {
+        return output;
+    }
+
     /**
      * This method returns a set of edges representing a horizontal slice through the skeleton
      * at the specified height (given that no other events happen bewteen current height and given cap height).
@@ -715,25 +872,69 @@ public class Skeleton
         refindFaceEvents = true;
     }
 
+    /**
+     * Flags a single edge as changed (eg: it has absorbed a parallel neighbour). Before
+     * the next event only that edge, and the corners that reference it, are re-collided.
+     */
+    public void refindFaceEventsLater( Edge changed )
+    {
+        changedEdges.add( changed );
+    }
+
     private void refindFaceEventsIfNeeded()
     {
         // on demand
-        if (!refindFaceEvents)
+        if (!refindFaceEvents && changedEdges.isEmpty())
             return;
 
-        /**
-         * Very expensive part - refind all collisions (including those already processed)
-         * MachineEvents remain in their current state
-         *
-         * should really only be done for those edges that have changed (change for when we integrate eppsteins stuff)
-         */
-
         // context collects events that must be processed immediately following (eg horizontals...)
          HeightCollision context = new HeightCollision();
 
-        qu.clearFaceEvents();
-        for ( Corner lc : new CloneConfirmIterator<Corner>(liveCorners) )
-            qu.addCorner( lc, context );
+        if (refindFaceEvents)
+        {
+            /**
+             * Very expensive part - refind all collisions (including those already processed)
+             * MachineEvents remain in their current state
+             */
+            refindFaceEvents = false;
+            changedEdges.clear();
+
+            qu.clearFaceEvents();
+            qu.addCorners( new ArrayList<Corner>( liveCorners ), context );
+        }
+
+        // removing corners in addCorner may change more edges, so iterate until stable
+        while (!changedEdges.isEmpty())
+        {
+            Set<Edge> edges = new LinkedHashSet<Edge>();
+            for (Edge e : changedEdges)
+                if (liveEdges.contains( e ))
+                    edges.add( e );
+            changedEdges.clear();
+
+            // these corners see different neighbouring edges, collide them against everything
+            Set<Corner> corners = new LinkedHashSet<Corner>();
+            for (Edge e : edges)
+                corners.addAll( e.currentCorners );
+
+            long fullCost = (long) liveCorners.size() * liveEdges.size(),
+                 before = qu.collisionTests;
+
+            for ( Corner lc : new CloneConfirmIterator<Corner>( corners ) )
+                if ( liveCorners.contains( lc ) )
+                {
+                    CancelToken.check( cancel );
+                    qu.addCorner( lc, context );
+                }
+
+            // ...and everything else only against the changed edges. Events in the queue against
+            // edges that have since been removed are rejected by CoSitedCollision.findChains
+            for ( Edge e : edges )
+                if ( liveEdges.contains( e ) )
+                    qu.checkEdge( e, corners );
+
+            collisionTestsSaved += Math.max( 0, fullCost - ( qu.collisionTests - before ) );
+        }
 
         // if we are not adding new events (and this isn't adding the input the first time)
         // this shouldn't do anything
@@ -761,12 +962,49 @@ public class Skeleton
 //    }
 
     /**
-     * Debug!
+     * Debug! How much checking to do depends on the validation level. Checks are
+     * assertions, so are silent unless run with -ea.
      */
     public void validate()
     {
-        if (true)
+        switch ( validation )
         {
+            case OFF:
+                return;
+            case SAMPLED:
+                validateSample();
+                break;
+            case INCREMENTAL:
+                for ( Corner c : touched )
+                {
+                    validateCorner( c );
+                    validateCorner( c.prevC );
+                    validateCorner( c.nextC );
+                }
+                break;
+            case FULL:
+                validateAll();
+                break;
+        }
+
+        touched.clear();
+    }
+
+    /**
+     * Records a corner created or relinked by the current event, for INCREMENTAL and
+     * SAMPLED validation.
+     */
+    public void touch( Corner c )
+    {
+        if ( validation == Validation.INCREMENTAL || validation == Validation.SAMPLED )
+            touched.add( c );
+    }
+
+    /**
+     * Checks every corner against every other. O(n^2).
+     */
+    private void validateAll()
+    {
         Set <Corner> all = new LinkedHashSet<Corner> ( liveCorners );
         outer:
         while (!all.isEmpty())
@@ -824,6 +1062,65 @@ public class Skeleton
             }
             while (next != start);
         }
+    }
+
+    /**
+     * Checks SAMPLE_SIZE corners after each event, walking along a loop from one the
+     * event touched (or on from where the last walk stopped, if it touched none).
+     * Constant per event.
+     */
+    private void validateSample()
+    {
+        if ( !touched.isEmpty() )
+            sampleCursor = touched.iterator().next();
+
+        for ( int i = 0; i < SAMPLE_SIZE && sampleCursor != null; i++ )
+        {
+            if ( !liveCorners.contains( sampleCursor ) )
+            {
+                sampleCursor = null; // wait for the next event to touch something
+                break;
+            }
+            validateCorner( sampleCursor );
+            sampleCursor = sampleCursor.nextC;
+        }
+    }
+
+    /**
+     * Checks the links around a single corner, using only the corner sets of its edges
+     * (rather than every live corner).
+     */
+    private void validateCorner( Corner c )
+    {
+        if ( c == null || !liveCorners.contains( c ) )
+            return; // removed since
+
+        Edge e = c.prevL;
+        try
+        {
+            assert ( c.nextC.prevC == c );
+            assert ( c.prevC.nextC == c );
+
+            assert ( c.prevC.nextL == c.prevL );
+            assert ( c.nextC.prevL == c.nextL );
+
+            for ( Edge edge : new Edge[] { c.prevL, c.nextL } )
+            {
+                e = edge;
+                assert ( e.currentCorners.contains( c ) );
+
+                for ( Corner d : e.currentCorners )
+                {
+                    assert ( liveCorners.contains( d ) );
+                    assert ( d.nextL == e || d.prevL == e );
+                }
+            }
+        }
+        catch ( AssertionError f )
+        {
+            System.err.println( " on edge is "+e);
+            System.err.println( " validate error on corner " + c + "  on line " + f.getStackTrace()[0].getLineNumber() );
+            f.printStackTrace();
         }
     }
 
@@ -0,0 +1,101 @@
+package straightskeleton;
+
+import java.io.ByteArrayOutputStream;
+import java.io.PrintStream;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import utils.Loop;
+import utils.LoopL;
+
+/**
+ * Measures the memory allocated (and the garbage collections caused) while a skeleton
+ * finds its collisions, on random star shaped polygons. Setting up a skeleton collides
+ * every corner with every edge it may hit, so is dominated by CollisionQ.
+ *
+ * Allocation is counted on this thread only, so the seeding threads are turned off.
+ * Needs a JVM whose ThreadMXBean is a com.sun.management.ThreadMXBean.
+ *
+ * usage: SkeletonAllocationBenchmark [corners] [rounds]
+ */
+public class SkeletonAllocationBenchmark
+{
+    public static void main( String[] args )
+    {
+        int count = args.length > 0 ? Integer.parseInt( args[0] ) : 2000;
+        int rounds = args.length > 1 ? Integer.parseInt( args[1] ) : 5;
+
+        if ( !( ManagementFactory.getThreadMXBean() instanceof com.sun.management.ThreadMXBean ) )
+        {
+            System.err.println( "can't measure allocation on this jvm" );
+            return;
+        }
+
+        com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        long thread = Thread.currentThread().getId();
+
+        CollisionQ.setSeedExecutor( null );
+
+        // the skeleton is chatty
+        PrintStream out = System.out;
+
+        for (int r = 0; r < rounds; r++)
+        {
+            LoopL<Edge> input = star( count, new Random( r ) );
+
+            long gcs = gcCount(), bytes = threads.getThreadAllocatedBytes( thread ), t0 = System.nanoTime();
+            System.setOut( new PrintStream( new ByteArrayOutputStream() ) );
+
+            Skeleton skel = new Skeleton( input, true );
+
+            long setupBytes = threads.getThreadAllocatedBytes( thread ) - bytes, t1 = System.nanoTime();
+            long tests = skel.qu.collisionTests;
+
+            skel.skeleton();
+
+            long allBytes = threads.getThreadAllocatedBytes( thread ) - bytes, t2 = System.nanoTime();
+            System.setOut( out );
+
+            System.out.println( String.format( "round %d setup %.1f ms %.1f MB, %d collision tests %.1f bytes/test; skeleton %.1f ms %.1f MB; %d gcs",
+                    r, ( t1 - t0 ) / 1e6, setupBytes / 1e6, tests, setupBytes / (double) Math.max( 1, tests ),
+                    ( t2 - t1 ) / 1e6, ( allBytes - setupBytes ) / 1e6, gcCount() - gcs ) );
+        }
+    }
+
+    private static long gcCount()
+    {
+        long count = 0;
+        for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans())
+            count += Math.max( 0, gc.getCollectionCount() );
+        return count;
+    }
+
+    /**
+     * A counter clockwise polygon with many reflex corners
+     */
+    private static LoopL<Edge> star( int count, Random rand )
+    {
+        Machine machine = new Machine( Math.PI / 4 );
+
+        List<Corner> corners = new ArrayList<Corner>();
+        for (int i = 0; i < count; i++)
+        {
+            double angle = Math.PI * 2 * i / count, radius = 50 + rand.nextDouble() * 50;
+            corners.add( new Corner( radius * Math.cos( angle ), radius * Math.sin( angle ) ) );
+        }
+
+        LoopL<Edge> input = new LoopL<Edge>();
+        Loop<Edge> loop = new Loop<Edge>();
+        input.add( loop );
+        for (int i = 0; i < count; i++)
+        {
+            Edge e = new Edge( corners.get( i ), corners.get( ( i + 1 ) % count ) );
+            e.machine = machine;
+            loop.append( e );
+        }
+
+        return input;
+    }
+}
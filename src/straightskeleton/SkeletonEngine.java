@@ -0,0 +1,46 @@
+package straightskeleton;
+
+import utils.CancelToken;
+import utils.LoopL;
+
+/**
+ * Something that computes the straight skeleton of loops of edges. The result is an
+ * Output with a face for each input edge (keyed by the edge's start corner), whatever
+ * the algorithm behind it.
+ */
+public interface SkeletonEngine
+{
+    /**
+     * @param input loops of edges, each with a machine. Edges shouldn't be repeated!
+     * @return the output with every face calculated
+     */
+    public Output skeleton( LoopL<Edge> input );
+
+    /**
+     * As skeleton(input), but gives up (throwing CancelToken.Cancelled) once the token
+     * is cancelled.
+     *
+     * @param cancel null for none
+     */
+    public Output skeleton( LoopL<Edge> input, CancelToken cancel );
+
+    /**
+     * The event driven skeleton: any machines, weights and height events.
+     */
+    public static SkeletonEngine GENERAL = new SkeletonEngine()
+    {
+        public Output skeleton( LoopL<Edge> input )
+        {
+            return skeleton( input, null );
+        }
+
+        public Output skeleton( LoopL<Edge> input, CancelToken cancel )
+        {
+            Skeleton skel = new Skeleton();
+            skel.setCancel( cancel );
+            skel.setupForEdges( input );
+            skel.skeleton();
+            return skel.getOutput();
+        }
+    };
+}
@@ -0,0 +1,49 @@
+package straightskeleton;
+
+import javax.vecmath.Point3d;
+import straightskeleton.Output.Face;
+
+/**
+ * Told about a skeleton's output as it's found, rather than once skeleton() has
+ * finished. Register with Skeleton.setListener.
+ *
+ * Nodes and arcs are reported as events add them (the input is added as the skeleton
+ * is constructed, so the input corners aren't usually reported). A face is reported once it's
+ * complete: its edge has left the wavefront and its sides have closed into loops, so
+ * its points and edges are final. Faces that can't be shown to be complete before the
+ * end (eg. those whose sides don't stitch cleanly) are reported as skeleton() finishes.
+ * Every face is reported once.
+ *
+ * The array backed skeleton builds its output after the event loop, so reports
+ * everything at the end.
+ */
+public interface SkeletonListener
+{
+    /**
+     * A new output point. Points are unique, so arcs at this point share this instance.
+     */
+    public void node( Point3d point );
+
+    /**
+     * A new output side between two nodes.
+     */
+    public void arc( Point3d start, Point3d end );
+
+    /**
+     * A face is complete. If the skeleton isn't keeping its output, the face's
+     * geometry is released once this returns.
+     */
+    public void face( Face face );
+
+    /**
+     * Does nothing, override what you need.
+     */
+    public static class Adapter implements SkeletonListener
+    {
+        public void node( Point3d point ) {}
+
+        public void arc( Point3d start, Point3d end ) {}
+
+        public void face( Face face ) {}
+    }
+}
@@ -0,0 +1,265 @@
+package straightskeleton;
+
+import java.util.Arrays;
+
+/**
+ * The wavefront of a constant angle skeleton, stored in primitive arrays indexed
+ * by int ids rather than as a graph of Corner and Edge objects.
+ *
+ * An edge is a plane Ax + By + Cz + D = 0, where (A,B) is the unit normal pointing
+ * inwards (to the left of the edge) and C = -tan(angle), the horizontal distance the
+ * edge moves per unit rise.
+ *
+ * A corner is created where an event happens and lies between the same previous and
+ * next edge for its whole life, until it is killed by a later event. The line it traces
+ * between the two is an arc of the output. Ids are never reused.
+ *
+ * The live corners whose next edge is e start the segments of e that are still on
+ * the wavefront. These are kept in a linked list per edge (segHead, segNext).
+ */
+public class WavefrontArrays
+{
+    // below this the determinant of two or three planes is treated as singular
+    final static double SINGULAR = 1e-12;
+    // corners whose edges turn left less than this are treated as reflex (see Corner.updateReflex)
+    final static double CONVEX = 0.01;
+
+    public int cornerCount = 0;
+    // where each corner was created, and where it died
+    public double[] x, y, z, endX, endY, endZ;
+    // horizontal velocity per unit rise
+    public double[] dx, dy;
+    public int[] next, prev, prevEdge, nextEdge;
+    public boolean[] live;
+    int[] segNext, segPrev;
+
+    public int edgeCount = 0;
+    public double[] a, b, c, d;
+    int[] segHead;
+
+    public WavefrontArrays( int corners, int edges )
+    {
+        corners = Math.max( corners, 4 );
+        edges = Math.max( edges, 4 );
+
+        x = new double[corners];
+        y = new double[corners];
+        z = new double[corners];
+        endX = new double[corners];
+        endY = new double[corners];
+        endZ = new double[corners];
+        dx = new double[corners];
+        dy = new double[corners];
+        next = new int[corners];
+        prev = new int[corners];
+        prevEdge = new int[corners];
+        nextEdge = new int[corners];
+        live = new boolean[corners];
+        segNext = new int[corners];
+        segPrev = new int[corners];
+
+        a = new double[edges];
+        b = new double[edges];
+        c = new double[edges];
+        d = new double[edges];
+        segHead = new int[edges];
+    }
+
+    /**
+     * @param angle from vertical, 0 < angle < PI/2 moves the edge inwards
+     * @return the id of the new edge
+     */
+    public int addEdge( double sx, double sy, double sz, double ex, double ey, double angle )
+    {
+        if ( edgeCount == a.length )
+        {
+            int size = edgeCount * 2;
+            a = Arrays.copyOf( a, size );
+            b = Arrays.copyOf( b, size );
+            c = Arrays.copyOf( c, size );
+            d = Arrays.copyOf( d, size );
+            segHead = Arrays.copyOf( segHead, size );
+        }
+
+        double len = Math.sqrt( ( ex - sx ) * ( ex - sx ) + ( ey - sy ) * ( ey - sy ) ),
+               nx = -( ey - sy ) / len, ny = ( ex - sx ) / len,
+               speed = Math.tan( angle );
+
+        int e = edgeCount++;
+        a[e] = nx;
+        b[e] = ny;
+        c[e] = -speed;
+        d[e] = -( nx * sx + ny * sy ) + speed * sz;
+        segHead[e] = -1;
+        return e;
+    }
+
+    /**
+     * Creates a live, unlinked corner.
+     * @return the id of the new corner
+     */
+    public int addCorner( double px, double py, double pz, int prevE, int nextE )
+    {
+        if ( cornerCount == x.length )
+        {
+            int size = cornerCount * 2;
+            x = Arrays.copyOf( x, size );
+            y = Arrays.copyOf( y, size );
+            z = Arrays.copyOf( z, size );
+            endX = Arrays.copyOf( endX, size );
+            endY = Arrays.copyOf( endY, size );
+            endZ = Arrays.copyOf( endZ, size );
+            dx = Arrays.copyOf( dx, size );
+            dy = Arrays.copyOf( dy, size );
+            next = Arrays.copyOf( next, size );
+            prev = Arrays.copyOf( prev, size );
+            prevEdge = Arrays.copyOf( prevEdge, size );
+            nextEdge = Arrays.copyOf( nextEdge, size );
+            live = Arrays.copyOf( live, size );
+            segNext = Arrays.copyOf( segNext, size );
+            segPrev = Arrays.copyOf( segPrev, size );
+        }
+
+        int k = cornerCount++;
+        x[k] = px;
+        y[k] = py;
+        z[k] = pz;
+        prevEdge[k] = prevE;
+        nextEdge[k] = nextE;
+        next[k] = prev[k] = -1;
+        live[k] = true;
+
+        // solve for the horizontal motion that keeps the corner on both planes as it rises one unit
+        double det = a[prevE] * b[nextE] - a[nextE] * b[prevE];
+        if ( Math.abs( det ) > SINGULAR )
+        {
+            dx[k] = ( -c[prevE] * b[nextE] + c[nextE] * b[prevE] ) / det;
+            dy[k] = ( -a[prevE] * c[nextE] + a[nextE] * c[prevE] ) / det;
+        }
+        else if ( a[prevE] * a[nextE] + b[prevE] * b[nextE] > 0 )
+        {
+            // parallel and consecutive: move straight up the slope
+            dx[k] = -c[prevE] * a[prevE];
+            dy[k] = -c[prevE] * b[prevE];
+        }
+        else
+        {
+            // anti-parallel: a horizontal ridge, the corner is gone as soon as it arrives
+            dx[k] = dy[k] = 0;
+        }
+
+        // start of a segment of nextE
+        segPrev[k] = -1;
+        segNext[k] = segHead[nextE];
+        if ( segHead[nextE] != -1 )
+            segPrev[segHead[nextE]] = k;
+        segHead[nextE] = k;
+
+        return k;
+    }
+
+    public void link( int from, int to )
+    {
+        next[from] = to;
+        prev[to] = from;
+    }
+
+    /**
+     * Removes the corner from the wavefront, recording where its arc ends
+     */
+    public void kill( int k, double px, double py, double pz )
+    {
+        live[k] = false;
+        endX[k] = px;
+        endY[k] = py;
+        endZ[k] = pz;
+
+        if ( segPrev[k] == -1 )
+            segHead[nextEdge[k]] = segNext[k];
+        else
+            segNext[segPrev[k]] = segNext[k];
+        if ( segNext[k] != -1 )
+            segPrev[segNext[k]] = segPrev[k];
+    }
+
+    /**
+     * Finds where the corner is at the given height: on the line where its two planes
+     * meet (so a corner that isn't quite on them, eg. after parallel edges were merged,
+     * is pulled back on), or by its velocity if they're parallel.
+     *
+     * @param out x,y are written here
+     */
+    public void locate( int k, double height, double[] out )
+    {
+        int p = prevEdge[k], n = nextEdge[k];
+        double det = a[p] * b[n] - a[n] * b[p];
+
+        if ( Math.abs( det ) > SINGULAR )
+        {
+            double rp = -c[p] * height - d[p], rn = -c[n] * height - d[n];
+            out[0] = ( rp * b[n] - rn * b[p] ) / det;
+            out[1] = ( a[p] * rn - a[n] * rp ) / det;
+        }
+        else
+        {
+            out[0] = x[k] + dx[k] * ( height - z[k] );
+            out[1] = y[k] + dy[k] * ( height - z[k] );
+        }
+    }
+
+    /**
+     * Does the corner turn right (or only just left) from its previous to its next edge?
+     */
+    public boolean isReflex( int k )
+    {
+        int p = prevEdge[k], n = nextEdge[k];
+        // edge directions are (b,-a)
+        return b[p] * -a[n] - -a[p] * b[n] < CONVEX;
+    }
+
+    /**
+     * @return the first live corner that starts a segment of the given edge, or -1
+     */
+    public int firstSegment( int e )
+    {
+        return segHead[e];
+    }
+
+    /**
+     * @return the next live corner that starts a segment of the same edge as k, or -1
+     */
+    public int nextSegment( int k )
+    {
+        return segNext[k];
+    }
+
+    /**
+     * Collides three edge planes (Cramer's rule, as LinearForm3D.collide).
+     *
+     * @param out x,y,z of the collision is written here
+     * @return false if the planes don't meet at a single point
+     */
+    public boolean collide( int e1, int e2, int e3, double[] out )
+    {
+        double
+                a1 = a[e1], b1 = b[e1], c1 = c[e1], d1 = -d[e1],
+                a2 = a[e2], b2 = b[e2], c2 = c[e2], d2 = -d[e2],
+                a3 = a[e3], b3 = b[e3], c3 = c[e3], d3 = -d[e3];
+
+        double
+                m1 = b2 * c3 - b3 * c2,
+                m2 = a2 * c3 - a3 * c2,
+                m3 = a2 * b3 - a3 * b2;
+
+        double det = a1 * m1 - b1 * m2 + c1 * m3;
+
+        double scale = Math.sqrt( ( a1 * a1 + b1 * b1 + c1 * c1 ) * ( a2 * a2 + b2 * b2 + c2 * c2 ) * ( a3 * a3 + b3 * b3 + c3 * c3 ) );
+        if ( Math.abs( det ) <= SINGULAR * scale )
+            return false;
+
+        out[0] = ( d1 * m1 - b1 * ( d2 * c3 - d3 * c2 ) + c1 * ( d2 * b3 - d3 * b2 ) ) / det;
+        out[1] = ( a1 * ( d2 * c3 - d3 * c2 ) - d1 * m2 + c1 * ( a2 * d3 - a3 * d2 ) ) / det;
+        out[2] = ( a1 * ( b2 * d3 - b3 * d2 ) - b1 * ( a2 * d3 - a3 * d2 ) + d1 * m3 ) / det;
+        return true;
+    }
+}
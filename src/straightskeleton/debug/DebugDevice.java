@@ -54,8 +54,9 @@ import utils.Loopable;
 public class DebugDevice
 {
     // global debug switch
-    public static boolean debug = false;
-    static DebugDevice instance = new DebugDevice();
+    public static volatile boolean debug = false;
+    // skeletons may be run on several threads, the display list is synchronized
+    static final DebugDevice instance = new DebugDevice();
 
     public static void reset() {
         debug = false;
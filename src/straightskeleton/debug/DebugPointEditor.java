@@ -121,8 +121,8 @@ public abstract class DebugPointEditor extends PointEditor
                 g2.setColor( new Color( 100, 100, 100 ) );
                 g2.setStroke( new BasicStroke( 1 ) );
 //                double offset = i * 10;
-                for ( Point3d p1 : face.results.map.keySet() )
-                    for ( Point3d p2 : face.results.map.get( p1 ) )
+                for ( Point3d p1 : face.getResults().map.keySet() )
+                    for ( Point3d p2 : face.getResults().map.get( p1 ) )
                         drawLine( g2, p1, p2 );
 //                        drawLine( g2, p1.x + offset, p1.y + offset, p2.x + offset, p2.y + offset );
             }
@@ -186,7 +186,7 @@ public class JDebugDevice extends javax.swing.JPanel {
 
             @Override
             public void hoverOver(Face f, Output output) {
-                elementInfo.setText(f.results.toString());
+                elementInfo.setText(f.getResults().toString());
 
 
                 Map<Corner, Color> highlight = new HashMap<Corner, Color>();
@@ -211,11 +211,11 @@ public class JDebugDevice extends javax.swing.JPanel {
 
             public void highlight (Face f, Color color, Map<Corner, Color> highlight)
             {
-                for (Point3d p : f.results.map.keySet())
+                for (Point3d p : f.getResults().map.keySet())
                 {
                     highlight.put( new Corner (p.x, p.y, p.z), color);
 
-                    for (Point3d p2 : f.results.map.get(p))
+                    for (Point3d p2 : f.getResults().map.get(p))
                         highlightEdges.put(new Edge(p, p2, 0xdeadbeef), color);
                 }
             }
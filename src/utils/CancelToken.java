@@ -0,0 +1,55 @@
+package utils;
+
+/**
+ * Asks a long computation on another thread to give up. The computation calls check()
+ * every so often (eg. once per event of a skeleton), which throws Cancelled once
+ * cancel() has been called; whatever it had built is left half done and should be
+ * thrown away.
+ *
+ * Null is used where there's nothing to cancel, so the check is usually guarded.
+ */
+public class CancelToken
+{
+    private volatile boolean cancelled = false;
+
+    public void cancel()
+    {
+        cancelled = true;
+    }
+
+    public boolean isCancelled()
+    {
+        return cancelled;
+    }
+
+    /**
+     * @throws Cancelled if we've been cancelled
+     */
+    public void check()
+    {
+        if ( cancelled )
+            throw new Cancelled();
+    }
+
+    /**
+     * Null safe check().
+     */
+    public static void check( CancelToken token )
+    {
+        if ( token != null )
+            token.check();
+    }
+
+    /**
+     * Thrown out of a cancelled computation.
+     */
+    public static class Cancelled extends RuntimeException
+    {
+        private static final long serialVersionUID = 1L;
+
+        public Cancelled()
+        {
+            super( "cancelled" );
+        }
+    }
+}
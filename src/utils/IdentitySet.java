@@ -0,0 +1,170 @@
+package utils;
+
+import java.util.AbstractSet;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.ConcurrentModificationException;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.NoSuchElementException;
+import java.util.Set;
+
+/**
+ * A set for small numbers of elements that compare by identity (eg. Corner, Feature),
+ * iterating in the order they were added (as LinkedHashSet).
+ *
+ * Up to THRESHOLD elements are kept in an array and found with ==. Past that, a
+ * LinkedHashSet takes over - so the elements' equals had better be identity. An empty
+ * set doesn't allocate its array.
+ */
+public class IdentitySet<E> extends AbstractSet<E>
+{
+    final static int THRESHOLD = 8;
+    private final static Object[] EMPTY = new Object[0];
+
+    private Object[] items = EMPTY;
+    private int size = 0;
+    // non-null once we've grown past THRESHOLD
+    private Set<E> large;
+    private int modCount = 0;
+
+    public IdentitySet()
+    {
+    }
+
+    public IdentitySet( Collection<? extends E> c )
+    {
+        addAll( c );
+    }
+
+    @Override
+    public int size()
+    {
+        return large == null ? size : large.size();
+    }
+
+    @Override
+    public boolean isEmpty()
+    {
+        return size() == 0;
+    }
+
+    @Override
+    public boolean contains( Object o )
+    {
+        if ( large != null )
+            return large.contains( o );
+        return indexOf( o ) >= 0;
+    }
+
+    private int indexOf( Object o )
+    {
+        for ( int i = 0; i < size; i++ )
+            if ( items[i] == o )
+                return i;
+        return -1;
+    }
+
+    @Override
+    public boolean add( E e )
+    {
+        if ( large != null )
+            return large.add( e );
+
+        if ( indexOf( e ) >= 0 )
+            return false;
+
+        modCount++;
+
+        if ( size == THRESHOLD )
+        {
+            large = new LinkedHashSet<E>( THRESHOLD * 4 );
+            for ( int i = 0; i < size; i++ )
+                large.add( get( i ) );
+            items = EMPTY;
+            size = 0;
+            return large.add( e );
+        }
+
+        if ( size == items.length )
+            items = Arrays.copyOf( items, Math.min( THRESHOLD, Math.max( 4, size * 2 ) ) );
+
+        items[size++] = e;
+        return true;
+    }
+
+    @Override
+    public boolean remove( Object o )
+    {
+        if ( large != null )
+            return large.remove( o );
+
+        int i = indexOf( o );
+        if ( i < 0 )
+            return false;
+
+        removeAt( i );
+        return true;
+    }
+
+    private void removeAt( int i )
+    {
+        System.arraycopy( items, i + 1, items, i, size - i - 1 );
+        items[--size] = null;
+        modCount++;
+    }
+
+    @Override
+    public void clear()
+    {
+        large = null;
+        Arrays.fill( items, 0, size, null );
+        size = 0;
+        modCount++;
+    }
+
+    @SuppressWarnings("unchecked")
+    private E get( int i )
+    {
+        return (E) items[i];
+    }
+
+    @Override
+    public Iterator<E> iterator()
+    {
+        if ( large != null )
+            return large.iterator();
+
+        return new Iterator<E>()
+        {
+            int next = 0, last = -1, expected = modCount;
+
+            public boolean hasNext()
+            {
+                return next < size;
+            }
+
+            public E next()
+            {
+                if ( modCount != expected )
+                    throw new ConcurrentModificationException();
+                if ( next >= size )
+                    throw new NoSuchElementException();
+                last = next++;
+                return get( last );
+            }
+
+            public void remove()
+            {
+                if ( last < 0 )
+                    throw new IllegalStateException();
+                if ( modCount != expected )
+                    throw new ConcurrentModificationException();
+                removeAt( last );
+                next = last;
+                last = -1;
+                expected = modCount;
+            }
+        };
+    }
+}
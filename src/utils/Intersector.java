@@ -154,7 +154,7 @@ public class Intersector
                 lines.add(((ILine)e.a).orig );
                 lines.add(((ILine)e.b).orig );
             }
-            Collision c = new Collision(sample.location, new ArrayList<Line> ( lines ));
+            Collision c = new Collision(sample.location, new ArrayList<Line> ( lines ), index_++);
                 output.add( c );
         }
 
@@ -453,17 +453,19 @@ public class Intersector
         }
     }
 
-   static int index_ = 0;
+    // numbers collisions in the order found, per call to intersectLines
+    int index_ = 0;
 
     public static class Collision
     {
         public Point2d location;
         public List<Line> lines;
-        public int index = index_++;
-        public Collision (Point2d loc, List<Line> lines)
+        public int index;
+        public Collision (Point2d loc, List<Line> lines, int index)
         {
             this.location = loc;
             this.lines = lines;
+            this.index = index;
         }
     }
     
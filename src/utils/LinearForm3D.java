@@ -125,6 +125,19 @@ public class LinearForm3D implements Cloneable
         return n;
     }
     
+    /**
+     * The z component of the direction of collide(other), without allocating the line.
+     * 0 if the planes are parallel.
+     */
+    public double collideDirectionZ (LinearForm3D other)
+    {
+        // cross product of the normalized normals, as createNormalVector
+        double n = 1.0 / Math.sqrt( A * A + B * B + C * C ),
+               o = 1.0 / Math.sqrt( other.A * other.A + other.B * other.B + other.C * other.C );
+
+        return A * n * ( other.B * o ) - B * n * ( other.A * o );
+    }
+
     /**
      * Returns a line or null if the planes are parallel
      * @param other
@@ -150,10 +163,113 @@ public class LinearForm3D implements Cloneable
         return new Line3D (new Point3d(res.get(0, 0), res.get(1, 0), res.get(2, 0) ), spec);
     }
     
+    /**
+     * Below this size of determinant, relative to the cube of the coefficients'
+     * (Frobenius) norm, the three planes might be rank deficient by Jama's test, so
+     * we ask Jama. Above it, the smallest singular value is far clear of Jama's
+     * tolerance (3 * eps * the largest).
+     */
+    public static final double SINGULAR = 1e-12;
+
     /**
      * Collide three planes to a point
      */
     public Tuple3d collide (LinearForm3D b, LinearForm3D c)
+    {
+        return collide( b, c, new Point3d() );
+    }
+
+    /**
+     * Collide three planes to a point. Gives exactly the answer collideJama does - the
+     * same LU decomposition, with partial pivoting, done in the same order - but on
+     * local variables, without allocating. Only when the planes are close to
+     * degenerate does it fall back to Jama, for the rank.
+     *
+     * @param out result is written here
+     * @return out, or null if the planes are (nearly) degenerate and don't meet at a point
+     * @throws RuntimeException if the planes are exactly singular (as the Jama solver does)
+     */
+    public Point3d collide (LinearForm3D b, LinearForm3D c, Point3d out)
+    {
+        LinearForm3D a = this;
+
+        // rows of the matrix, and the right hand side, as Jama.solve
+        double
+                m00 = a.A, m01 = a.B, m02 = a.C, r0 = -a.D,
+                m10 = b.A, m11 = b.B, m12 = b.C, r1 = -b.D,
+                m20 = c.A, m21 = c.B, m22 = c.C, r2 = -c.D,
+                t;
+
+        // Jama's LUDecomposition (Crout, dot product form), unrolled for 3x3.
+        // column 0: no dot products, pick the pivot
+        int p = 0;
+        if ( Math.abs( m10 ) > Math.abs( m00 ) )
+            p = 1;
+        if ( Math.abs( m20 ) > Math.abs( p == 0 ? m00 : m10 ) )
+            p = 2;
+        if ( p == 1 )
+        {
+            t = m00; m00 = m10; m10 = t; t = m01; m01 = m11; m11 = t; t = m02; m02 = m12; m12 = t; t = r0; r0 = r1; r1 = t;
+        }
+        else if ( p == 2 )
+        {
+            t = m00; m00 = m20; m20 = t; t = m01; m01 = m21; m21 = t; t = m02; m02 = m22; m22 = t; t = r0; r0 = r2; r2 = t;
+        }
+        if ( m00 != 0.0 )
+        {
+            m10 /= m00;
+            m20 /= m00;
+        }
+
+        // column 1
+        m11 -= 0.0 + m10 * m01;
+        m21 -= 0.0 + m20 * m01;
+        if ( Math.abs( m21 ) > Math.abs( m11 ) )
+        {
+            t = m10; m10 = m20; m20 = t; t = m11; m11 = m21; m21 = t; t = m12; m12 = m22; m22 = t; t = r1; r1 = r2; r2 = t;
+        }
+        if ( m11 != 0.0 )
+            m21 /= m11;
+
+        // column 2
+        m12 -= 0.0 + m10 * m02;
+        m22 -= 0.0 + m20 * m02 + m21 * m12;
+
+        if ( m00 == 0.0 || m11 == 0.0 || m22 == 0.0 )
+            throw new RuntimeException( "Matrix is singular." );
+
+        // forward then back substitution, as LUDecomposition.solve
+        r1 -= r0 * m10;
+        r2 -= r0 * m20;
+        r2 -= r1 * m21;
+
+        r2 /= m22;
+        r0 -= r2 * m02;
+        r1 -= r2 * m12;
+        r1 /= m11;
+        r0 -= r1 * m01;
+        r0 /= m00;
+
+        // the determinant is the product of the pivots (sign aside)
+        double norm = a.A * a.A + a.B * a.B + a.C * a.C +
+                      b.A * b.A + b.B * b.B + b.C * b.C +
+                      c.A * c.A + c.B * c.B + c.C * c.C;
+        if ( Math.abs( m00 * m11 * m22 ) <= SINGULAR * norm * Math.sqrt( norm ) &&
+                new Matrix( new double[][] { { a.A, a.B, a.C }, { b.A, b.B, b.C }, { c.A, c.B, c.C } } ).rank() != 3 )
+            return null; // not quite right, but could return a line
+
+        out.x = r0;
+        out.y = r1;
+        out.z = r2;
+
+        return out;
+    }
+
+    /**
+     * Reference implementation of the three plane collision, via Jama's LU solve and rank.
+     * Slow, allocates, kept to check collide(b, c, out) against.
+     */
+    public Tuple3d collideJama (LinearForm3D b, LinearForm3D c)
     {
         LinearForm3D a = this;
         
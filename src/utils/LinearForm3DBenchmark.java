@@ -0,0 +1,165 @@
+package utils;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import javax.vecmath.Point3d;
+import javax.vecmath.Tuple3d;
+import javax.vecmath.Vector3d;
+
+/**
+ * Compares the allocation free three plane collision in LinearForm3D against
+ * the Jama reference: checks they agree exactly (on random and on nearly
+ * degenerate planes), then times both.
+ *
+ * usage: LinearForm3DBenchmark [collisions per round] [rounds]
+ */
+public class LinearForm3DBenchmark
+{
+    public static void main( String[] args )
+    {
+        int count = args.length > 0 ? Integer.parseInt( args[0] ) : 100000;
+        int rounds = args.length > 1 ? Integer.parseInt( args[1] ) : 10;
+
+        // planes like the skeleton's: sloping, through points in a unit-ish square
+        Random rand = new Random( 2010 );
+        LinearForm3D[] planes = new LinearForm3D[count * 3];
+        for (int i = 0; i < planes.length; i++)
+        {
+            double angle = rand.nextDouble() * Math.PI * 2, slope = 0.1 + rand.nextDouble();
+            Vector3d normal = new Vector3d( Math.cos( angle ), Math.sin( angle ), slope );
+            normal.normalize();
+            planes[i] = new LinearForm3D( normal, new Point3d( rand.nextDouble(), rand.nextDouble(), 0 ) );
+        }
+
+        // agreement, on the random triples and on nearly degenerate ones
+        int mismatch = 0;
+        for (int i = 0; i < count; i++)
+            if ( !agree( planes[i * 3], planes[i * 3 + 1], planes[i * 3 + 2] ) )
+                mismatch++;
+
+        int degenerate = 0, degenerateMismatch = 0;
+        for (LinearForm3D[] triple : degenerate( rand, count ))
+        {
+            degenerate++;
+            if ( !agree( triple[0], triple[1], triple[2] ) )
+                degenerateMismatch++;
+        }
+
+        System.out.println( "collisions " + count + " mismatched " + mismatch +
+                ", near parallel or co-sited " + degenerate + " mismatched " + degenerateMismatch );
+
+        Point3d out = new Point3d();
+        for (int r = 0; r < rounds; r++)
+        {
+            long t0 = System.nanoTime();
+            double sink = 0;
+            for (int i = 0; i < count; i++)
+            {
+                try
+                {
+                    Tuple3d res = planes[i * 3].collideJama( planes[i * 3 + 1], planes[i * 3 + 2] );
+                    if ( res != null )
+                        sink += res.z;
+                }
+                catch ( RuntimeException e )
+                {
+                }
+            }
+            long t1 = System.nanoTime();
+            for (int i = 0; i < count; i++)
+            {
+                Point3d res = planes[i * 3].collide( planes[i * 3 + 1], planes[i * 3 + 2], out );
+                if ( res != null )
+                    sink += res.z;
+            }
+            long t2 = System.nanoTime();
+
+            System.out.println( String.format( "round %d jama %.1f ns/op unrolled %.1f ns/op (%f)",
+                    r, ( t1 - t0 ) / (double) count, ( t2 - t1 ) / (double) count, sink ) );
+        }
+    }
+
+    /**
+     * Triples of planes that are nearly (or exactly) parallel, or that meet along
+     * a line or at a shared point with nearly the same normals - as co-sited
+     * events in the skeleton give.
+     */
+    static List<LinearForm3D[]> degenerate( Random rand, int count )
+    {
+        List<LinearForm3D[]> out = new ArrayList<LinearForm3D[]>();
+        double[] tilts = { 0, 1e-17, 1e-15, 1e-13, 1e-11, 1e-9, 1e-7, 1e-5 };
+
+        for (int i = 0; i < count / tilts.length; i++)
+        {
+            for (double tilt : tilts)
+            {
+                double angle = rand.nextDouble() * Math.PI * 2, slope = 0.1 + rand.nextDouble();
+                Point3d site = new Point3d( rand.nextDouble(), rand.nextDouble(), rand.nextDouble() );
+                Point3d elsewhere = new Point3d( rand.nextDouble(), rand.nextDouble(), 0 );
+
+                // two planes tilted from each other by a little, a third anywhere
+                Vector3d n1 = normal( angle, slope ), n2 = normal( angle + tilt, slope ), n3 = normal( rand.nextDouble() * Math.PI * 2, slope );
+                out.add( new LinearForm3D[] { new LinearForm3D( n1, site ), new LinearForm3D( n2, elsewhere ), new LinearForm3D( n3, site ) } );
+
+                // all three through one point, two (nearly) the same
+                out.add( new LinearForm3D[] { new LinearForm3D( n1, site ), new LinearForm3D( n2, site ), new LinearForm3D( n3, site ) } );
+
+                // all three nearly the same
+                Vector3d n4 = normal( angle - tilt, slope + tilt );
+                out.add( new LinearForm3D[] { new LinearForm3D( n1, site ), new LinearForm3D( n2, site ), new LinearForm3D( n4, elsewhere ) } );
+
+                // axis aligned, as square holes give: normals with exact zeros
+                int quarter = rand.nextInt( 4 );
+                Vector3d a1 = normal( quarter * Math.PI / 2, 1 ), a2 = normal( ( quarter + 1 ) * Math.PI / 2, 1 ), a3 = normal( ( quarter + 2 ) * Math.PI / 2, 1 + tilt );
+                a1.x = Math.rint( a1.x * 1e6 ) / 1e6; a1.y = Math.rint( a1.y * 1e6 ) / 1e6;
+                a2.x = Math.rint( a2.x * 1e6 ) / 1e6; a2.y = Math.rint( a2.y * 1e6 ) / 1e6;
+                a3.x = Math.rint( a3.x * 1e6 ) / 1e6; a3.y = Math.rint( a3.y * 1e6 ) / 1e6;
+                out.add( new LinearForm3D[] { new LinearForm3D( a1, site ), new LinearForm3D( a2, site ), new LinearForm3D( a3, site ) } );
+            }
+        }
+        return out;
+    }
+
+    private static Vector3d normal( double angle, double slope )
+    {
+        Vector3d normal = new Vector3d( Math.cos( angle ), Math.sin( angle ), slope );
+        normal.normalize();
+        return normal;
+    }
+
+    /**
+     * @return true if collide(b, c, out) gives exactly what collideJama does: the
+     * same bits (signed zeros included), null, or a singular exception.
+     */
+    static boolean agree( LinearForm3D a, LinearForm3D b, LinearForm3D c )
+    {
+        Tuple3d ref, fast;
+        boolean refThrew = false, fastThrew = false;
+        try
+        {
+            ref = a.collideJama( b, c );
+        }
+        catch ( RuntimeException e )
+        {
+            ref = null;
+            refThrew = true;
+        }
+        try
+        {
+            fast = a.collide( b, c, new Point3d() );
+        }
+        catch ( RuntimeException e )
+        {
+            fast = null;
+            fastThrew = true;
+        }
+
+        if ( refThrew || fastThrew || ref == null || fast == null )
+            return refThrew == fastThrew && ( ref == null ) == ( fast == null );
+
+        return Double.doubleToLongBits( ref.x ) == Double.doubleToLongBits( fast.x ) &&
+               Double.doubleToLongBits( ref.y ) == Double.doubleToLongBits( fast.y ) &&
+               Double.doubleToLongBits( ref.z ) == Double.doubleToLongBits( fast.z );
+    }
+}
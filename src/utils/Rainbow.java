@@ -33,12 +33,12 @@ public class Rainbow
         Color.pink
     };
 
-    public static String lastAsString( Object key )
+    public static synchronized String lastAsString( Object key )
     {
         return rainbowStrings[(indexes.get( key ) -1 )% (rainbowStrings.length)];
     }
 
-    public static Color next( Object key )
+    public static synchronized Color next( Object key )
     {
         int val = indexes.containsKey( key ) ? indexes.get( key ) : 0;
         indexes.put( key, val+1 );